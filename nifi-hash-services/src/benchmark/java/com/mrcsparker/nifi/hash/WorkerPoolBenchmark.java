@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the worker pools available to the Parallel execution mode when many processor instances
+ * hash FlowFiles of mixed sizes at once, printing how long each pool took per round. It is not part
+ * of the unit tests; run it with <code>mvn -P benchmark verify</code> in this module.
+ */
+public class WorkerPoolBenchmark {
+
+    private static final int PROCESSOR_INSTANCES = 24;
+    private static final int CONCURRENT_TASKS = 16;
+    private static final int HASHING_THREADS = 4;
+    private static final int RECORD_BATCH_SIZE = 1000;
+    private static final int[] FLOWFILE_SIZES = {10, 1_000, 10_000, 200_000};
+
+    private static final RecordSchema SCHEMA = new SimpleRecordSchema(Collections.singletonList(
+            new RecordField("name", RecordFieldType.STRING.getDataType())));
+
+    private final KeyedHasher hasher = HashAlgorithm.SHA256.newHasher("4BAC2739-3BDD-9777-CE02453256C5");
+
+    public static void main(final String[] args) throws Exception {
+        new WorkerPoolBenchmark().compareWorkerPools();
+    }
+
+    private void compareWorkerPools() throws Exception {
+        final List<Integer> flowFiles = new ArrayList<>();
+        for (int i = 0; i < PROCESSOR_INSTANCES * 4; i++) {
+            flowFiles.add(FLOWFILE_SIZES[i % FLOWFILE_SIZES.length]);
+        }
+        Collections.shuffle(flowFiles, new Random(42));
+
+        for (int round = 0; round < 3; round++) {
+            final List<ExecutorService> platformPools = new ArrayList<>();
+            for (int i = 0; i < PROCESSOR_INSTANCES; i++) {
+                platformPools.add(Executors.newFixedThreadPool(HASHING_THREADS));
+            }
+            report(round, "Platform pool per processor", run(flowFiles, platformPools));
+            platformPools.forEach(ExecutorService::shutdownNow);
+
+            report(round, "Shared ForkJoinPool", run(flowFiles, Collections.singletonList(SharedExecutors.forkJoinPool())));
+
+            if (SharedExecutors.virtualThreadsSupported()) {
+                report(round, "Virtual threads", run(flowFiles, Collections.singletonList(SharedExecutors.virtualThreads())));
+            } else if (round == 0) {
+                System.out.println("Virtual threads are not available in this JVM; they require Java 21 or later");
+            }
+        }
+    }
+
+    private static void report(final int round, final String name, final long nanos) {
+        System.out.printf("round %d  %-28s %,8d ms%n", round, name, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    /**
+     * Hashes every FlowFile from a fixed set of processor threads, the way NiFi's timer-driven
+     * threads would, giving the i-th FlowFile to processor instance <code>i % pools.size()</code>.
+     */
+    private long run(final List<Integer> flowFiles, final List<ExecutorService> pools) throws Exception {
+        final ExecutorService tasks = Executors.newFixedThreadPool(CONCURRENT_TASKS);
+        final AtomicLong written = new AtomicLong();
+        try {
+            final long start = System.nanoTime();
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < flowFiles.size(); i++) {
+                final int records = flowFiles.get(i);
+                final ExecutorService pool = pools.get(i % pools.size());
+                futures.add(tasks.submit(() -> {
+                    RecordPipelines.parallel(new GeneratedRecordReader(records), this::hash, record -> written.incrementAndGet(),
+                            pool, RECORD_BATCH_SIZE, HASHING_THREADS * 2);
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            tasks.shutdownNow();
+        }
+    }
+
+    private void hash(final Record record, final AbstractRecordProcessor.RecordSink sink) throws IOException {
+        record.setValue("name", hasher.hash(record.getAsString("name")));
+        sink.accept(record);
+    }
+
+    private static final class GeneratedRecordReader implements RecordReader {
+        private final int records;
+        private int next;
+
+        GeneratedRecordReader(final int records) {
+            this.records = records;
+        }
+
+        @Override
+        public Record nextRecord(final boolean coerceTypes, final boolean dropUnknownFields) {
+            if (next == records) {
+                return null;
+            }
+            final Map<String, Object> values = new HashMap<>();
+            values.put("name", "customer-" + next++ + "@example.com");
+            return new MapRecord(SCHEMA, values);
+        }
+
+        @Override
+        public RecordSchema getSchema() {
+            return SCHEMA;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -16,15 +16,15 @@
  */
 package com.mrcsparker.nifi.hash;
 
-import com.google.common.hash.Hashing;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.lookup.LookupFailureException;
 import org.apache.nifi.lookup.LookupService;
 import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.serialization.record.DataType;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 import java.util.Collections;
 import java.util.Set;
 
@@ -40,20 +40,53 @@ abstract class AbstractHashLookupService<T> extends AbstractControllerService im
             .required(true)
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
+    static final PropertyDescriptor HASH_ALGORITHM = new PropertyDescriptor.Builder()
+            .fromPropertyDescriptor(HashUtils.HASH_ALGORITHM)
+            .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
+            .build();
+
+    static final PropertyDescriptor OUTPUT_ENCODING = HashUtils.OUTPUT_ENCODING;
+    static final PropertyDescriptor DIGEST_LENGTH = HashUtils.DIGEST_LENGTH;
 
     String hashKey;
+    volatile HashContext hashContext;
 
     @Override
     public Set<String> getRequiredKeys() {
         return Collections.emptySet();
     }
 
-    String getHash(String val) {
-        if (StringUtils.isBlank(val)) {
-            return val;
-        } else {
-            String newVal = this.hashKey + val + Base64.getEncoder().encodeToString(val.getBytes());
-            return Hashing.sha256().hashString(newVal, StandardCharsets.UTF_8).toString();
+    Object getHash(String val) throws LookupFailureException {
+        return getHashContext().hash(val);
+    }
+
+    /**
+     * Hashes every value into the same position of <code>out</code>, as {@link #getHash(String)}
+     * would, hashing them as one batch.
+     */
+    void hashAll(final String[] values, final Object[] out) throws LookupFailureException {
+        getHashContext().hashBatch(values, values.length, out);
+    }
+
+    /**
+     * @return the record field type of hashed values
+     */
+    DataType getHashDataType() throws LookupFailureException {
+        return getHashContext().getEncoding().getDataType();
+    }
+
+    private HashContext getHashContext() throws LookupFailureException {
+        final HashContext hashContext = this.hashContext;
+        if (hashContext == null) {
+            throw new LookupFailureException("The service must be enabled before it can hash values");
         }
+        return hashContext;
+    }
+
+    static HashContext createHashContext(final ConfigurationContext context, final String hashKey) {
+        final String algorithm = context.getProperty(HASH_ALGORITHM).evaluateAttributeExpressions().getValue();
+        final OutputEncoding encoding = OutputEncoding.fromValue(context.getProperty(OUTPUT_ENCODING).getValue());
+        final Integer digestLength = context.getProperty(DIGEST_LENGTH).asInteger();
+        return new HashContext(HashAlgorithm.fromValue(algorithm), hashKey, null, encoding, digestLength == null ? 0 : digestLength);
     }
 }
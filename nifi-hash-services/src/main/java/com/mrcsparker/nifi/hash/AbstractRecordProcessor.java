@@ -18,15 +18,48 @@
 package com.mrcsparker.nifi.hash;
 
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.PropertyValue;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.record.path.RecordPath;
 import org.apache.nifi.record.path.util.RecordPathCache;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
 import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.RecordSetWriter;
 import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordSchema;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 public abstract class AbstractRecordProcessor extends AbstractProcessor {
 
@@ -44,6 +77,129 @@ public abstract class AbstractRecordProcessor extends AbstractProcessor {
             .identifiesControllerService(RecordSetWriterFactory.class)
             .required(true)
             .build();
+    static final PropertyDescriptor HASH_KEY = new PropertyDescriptor.Builder()
+            .name("key")
+            .displayName("Hash Key")
+            .description("Hash Key")
+            .required(true)
+            .sensitive(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+    static final PropertyDescriptor FLOWFILE_BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("flowfile-batch-size")
+            .displayName("FlowFile Batch Size")
+            .description("The maximum number of FlowFiles to process in a single execution. Raising this reduces the "
+                    + "per-FlowFile overhead when the incoming FlowFiles only hold a few records each.")
+            .required(true)
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    static final AllowableValue EXECUTION_SEQUENTIAL = new AllowableValue("sequential", "Sequential",
+            "Each record is read, hashed and written in turn on the thread that runs the processor.");
+    static final AllowableValue EXECUTION_PARALLEL = new AllowableValue("parallel", "Parallel",
+            "Records are read in batches that are hashed by a pool of worker threads, then written in their original order. "
+                    + "Lets a single large FlowFile use more than one core.");
+    static final AllowableValue EXECUTION_PIPELINED = new AllowableValue("pipelined", "Pipelined",
+            "Reading, hashing and writing each run on their own thread and hand batches of records to each other, "
+                    + "so parsing and serialization overlap with hashing.");
+    static final PropertyDescriptor EXECUTION_MODE = new PropertyDescriptor.Builder()
+            .name("execution-mode")
+            .displayName("Execution Mode")
+            .description("How the records of a single FlowFile are spread over threads.")
+            .required(true)
+            .allowableValues(EXECUTION_SEQUENTIAL, EXECUTION_PARALLEL, EXECUTION_PIPELINED)
+            .defaultValue(EXECUTION_SEQUENTIAL.getValue())
+            .build();
+    static final AllowableValue WORKER_POOL_PROCESSOR = new AllowableValue("processor", "Processor",
+            "Each processor instance starts its own pool of platform threads: Hashing Threads of them in Parallel mode, and "
+                    + "two per Concurrent Task in Pipelined mode, one for the read and one for the hashing stage of each FlowFile.");
+    static final AllowableValue WORKER_POOL_SHARED = new AllowableValue("shared", "Shared",
+            "Record batches are hashed on a work-stealing pool shared by every HashRecord and KeyHashRecord in the JVM, "
+                    + "with one thread per available processor. While a Pipelined stage waits for another, the pool starts "
+                    + "an extra thread in its place.");
+    static final AllowableValue WORKER_POOL_VIRTUAL = new AllowableValue("virtual", "Virtual Threads",
+            "Every record batch is hashed on its own virtual thread. Requires Java 21 or later; on older JVMs the processor is invalid. "
+                    + "Hashing scratch buffers and HMAC and BLAKE3 state are kept per thread, so on virtual threads they are "
+                    + "rebuilt for every batch; use a larger Record Batch Size, or a platform thread pool, to keep that cost small.");
+    static final PropertyDescriptor WORKER_POOL = new PropertyDescriptor.Builder()
+            .name("worker-pool")
+            .displayName("Worker Pool")
+            .description("Where the worker threads come from when the Execution Mode is Parallel or Pipelined. "
+                    + "Shared pools keep many processor instances from oversubscribing the CPUs.")
+            .required(true)
+            .allowableValues(WORKER_POOL_PROCESSOR, WORKER_POOL_SHARED, WORKER_POOL_VIRTUAL)
+            .defaultValue(WORKER_POOL_PROCESSOR.getValue())
+            .build();
+    static final PropertyDescriptor HASHING_THREADS = new PropertyDescriptor.Builder()
+            .name("hashing-threads")
+            .displayName("Hashing Threads")
+            .description("The number of record batches of a single FlowFile that are hashed at once when the Execution Mode is Parallel. "
+                    + "With the Processor Worker Pool this is also the size of the pool. Pipelined mode hashes one batch of a FlowFile "
+                    + "at a time and ignores this.")
+            .required(true)
+            .defaultValue("4")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+    static final PropertyDescriptor RECORD_BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("record-batch-size")
+            .displayName("Record Batch Size")
+            .description("The number of records handed from one thread to another at a time when the Execution Mode is Parallel or Pipelined. "
+                    + "HashRecord hashes the fields of such a batch a column at a time.")
+            .required(true)
+            .defaultValue("1000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    static final AllowableValue CACHE_NONE = new AllowableValue("none", "None",
+            "Every value is hashed, even if it was hashed before.");
+    static final AllowableValue CACHE_ON_HEAP = new AllowableValue("on-heap", "On Heap",
+            "Recently hashed values and their digests are kept on the Java heap, evicting the least recently used first.");
+    static final AllowableValue CACHE_OFF_HEAP = new AllowableValue("off-heap", "Off Heap",
+            "Fingerprints of hashed values and their digests are kept in memory outside the Java heap, so large caches "
+                    + "do not slow down garbage collection. Entries that have not been read recently are evicted first.");
+    static final PropertyDescriptor HASH_CACHE = new PropertyDescriptor.Builder()
+            .name("hash-cache")
+            .displayName("Hash Cache")
+            .description("Remembers the digests of values this processor has already hashed, so columns with repeated values "
+                    + "are not hashed again. The cache is emptied whenever the processor is started.")
+            .required(true)
+            .allowableValues(CACHE_NONE, CACHE_ON_HEAP, CACHE_OFF_HEAP)
+            .defaultValue(CACHE_NONE.getValue())
+            .build();
+    static final PropertyDescriptor CACHE_MAX_ENTRIES = new PropertyDescriptor.Builder()
+            .name("cache-max-entries")
+            .displayName("Cache Max Entries")
+            .description("The most values the Hash Cache holds. Ignored when Cache Max Size is set. "
+                    + "An Off Heap cache rounds its capacity down to a power of two.")
+            .required(true)
+            .defaultValue("100000")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+    static final PropertyDescriptor CACHE_MAX_SIZE = new PropertyDescriptor.Builder()
+            .name("cache-max-size")
+            .displayName("Cache Max Size")
+            .description("The most memory the Hash Cache may use, such as 256 MB. When set, the cache is bounded by size instead of by entry count.")
+            .required(false)
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .build();
+    static final PropertyDescriptor CACHE_TTL = new PropertyDescriptor.Builder()
+            .name("cache-ttl")
+            .displayName("Cache TTL")
+            .description("How long a value stays in an On Heap Hash Cache after it was hashed, such as 1 hour. "
+                    + "When not set, values stay until they are evicted. Off Heap caches ignore this.")
+            .required(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    static final PropertyDescriptor CACHE_DIRECTORY = new PropertyDescriptor.Builder()
+            .name("cache-directory")
+            .displayName("Cache Directory")
+            .description("A directory in which an Off Heap Hash Cache is kept in a memory-mapped file, so the cache survives restarts. "
+                    + "The file is emptied when the Hash Key, Hash Algorithm or cache size changes. When not set, the cache only lives in memory.")
+            .required(false)
+            .addValidator(StandardValidators.createDirectoryExistsValidator(false, true))
+            .build();
 
     static final Relationship REL_SUCCESS = new Relationship.Builder()
             .name("success")
@@ -55,8 +211,34 @@ public abstract class AbstractRecordProcessor extends AbstractProcessor {
                     + "the unchanged FlowFile will be routed to this relationship")
             .build();
 
+    // Batches each pipeline queue may hold before the stage feeding it has to wait
+    private static final int PIPELINE_QUEUE_CAPACITY = 4;
+
+    // RecordPaths that select a single top-level field, such as /email
+    private static final Pattern SIMPLE_FIELD_PATH = Pattern.compile("/[A-Za-z_][A-Za-z0-9_]*");
+
     protected volatile RecordPathCache recordPathCache;
     protected volatile List<String> recordPaths;
+    protected volatile Map<String, String> destinationFields;
+
+    private final ConcurrentMap<HashAlgorithm, HashContext> hashContexts = new ConcurrentHashMap<>();
+    private volatile String hashKey;
+    private volatile OutputEncoding outputEncoding;
+    private volatile int digestBits;
+    // Null when the Hash Cache is None
+    private volatile HashCache hashCache;
+
+    // True when the plan has to be rebuilt for every FlowFile because a property uses Expression Language
+    private volatile boolean planPerFlowFile;
+    private volatile HashPlan scheduledPlan;
+
+    // Null when the Execution Mode is Sequential
+    private volatile ExecutorService executor;
+    // False when the executor is one of the SharedExecutors, which must never be shut down
+    private volatile boolean ownsExecutor;
+    private volatile boolean pipelined;
+    private volatile int recordBatchSize;
+    private volatile int maxBatchesInFlight;
 
     @Override
     protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
@@ -74,21 +256,366 @@ public abstract class AbstractRecordProcessor extends AbstractProcessor {
         return relationships;
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        final boolean sequential = EXECUTION_SEQUENTIAL.getValue().equals(validationContext.getProperty(EXECUTION_MODE).getValue());
+        final boolean virtual = WORKER_POOL_VIRTUAL.getValue().equals(validationContext.getProperty(WORKER_POOL).getValue());
+        if (sequential || !virtual || SharedExecutors.virtualThreadsSupported()) {
+            return Collections.emptyList();
+        }
+
+        return Collections.singleton(new ValidationResult.Builder()
+                .subject(WORKER_POOL.getDisplayName())
+                .valid(false)
+                .explanation("virtual threads are not available in this JVM; they require Java 21 or later")
+                .build());
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        final List<FlowFile> flowFiles = session.get(context.getProperty(FLOWFILE_BATCH_SIZE).asInteger());
+        if (flowFiles.isEmpty()) {
+            return;
+        }
+
+        final RecordReaderFactory readerFactory = context.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
+        final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+
+        long totalRecords = 0;
+        int successful = 0;
+        for (final FlowFile flowFile : flowFiles) {
+            final int count = processFlowFile(context, session, flowFile, readerFactory, writerFactory);
+            if (count >= 0) {
+                totalRecords += count;
+                successful++;
+            }
+        }
+
+        session.adjustCounter("Records Processed", totalRecords, false);
+        session.adjustCounter("FlowFiles Processed", successful, false);
+
+        final HashCache hashCache = this.hashCache;
+        if (hashCache != null) {
+            final HashCacheStats stats = hashCache.getStats();
+            session.adjustCounter("Hash Cache Hits", stats.drainHits(), false);
+            session.adjustCounter("Hash Cache Misses", stats.drainMisses(), false);
+            session.adjustCounter("Hash Cache Evictions", stats.drainEvictions(), false);
+        }
+    }
+
+    /**
+     * Rewrites a single FlowFile and routes it to success or failure.
+     *
+     * @return the number of records written, or -1 if the FlowFile was routed to failure
+     */
+    private int processFlowFile(final ProcessContext context, final ProcessSession session, FlowFile flowFile,
+                                final RecordReaderFactory readerFactory, final RecordSetWriterFactory writerFactory) {
+        final Map<String, String> attributes = new HashMap<>();
+        final AtomicInteger recordCount = new AtomicInteger();
+
+        final FlowFile original = flowFile;
+        final Map<String, String> originalAttributes = flowFile.getAttributes();
+        try {
+            flowFile = session.write(flowFile, (in, out) -> {
+                final HashPlan plan = getHashPlan(context, original);
+
+                try (final RecordReader reader = readerFactory.createRecordReader(originalAttributes, in, original.getSize(), getLogger())) {
+
+                    final RecordSchema writeSchema = getWriteSchema(writerFactory, originalAttributes, reader.getSchema(), plan);
+                    try (final RecordSetWriter writer = writerFactory.createWriter(getLogger(), writeSchema, out, originalAttributes)) {
+                        writer.beginRecordSet();
+
+                        final RecordPipelines.RecordTransform transform = new RecordPipelines.RecordTransform() {
+                            @Override
+                            public void apply(final Record record, final RecordSink sink) throws IOException {
+                                processRecord(record, writeSchema, plan, sink);
+                            }
+
+                            @Override
+                            public void applyBatch(final List<Record> records, final RecordSink sink) throws IOException {
+                                processRecords(records, writeSchema, plan, sink);
+                            }
+                        };
+                        final ExecutorService executor = this.executor;
+                        if (executor == null) {
+                            RecordPipelines.sequential(reader, transform, writer::write);
+                        } else if (pipelined) {
+                            RecordPipelines.pipelined(reader, transform, writer::write, executor, recordBatchSize, PIPELINE_QUEUE_CAPACITY);
+                        } else {
+                            RecordPipelines.parallel(reader, transform, writer::write, executor, recordBatchSize, maxBatchesInFlight);
+                        }
+
+                        final WriteResult writeResult = writer.finishRecordSet();
+                        attributes.put("record.count", String.valueOf(writeResult.getRecordCount()));
+                        attributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
+                        attributes.putAll(writeResult.getAttributes());
+                        recordCount.set(writeResult.getRecordCount());
+                    }
+                } catch (final SchemaNotFoundException e) {
+                    throw new ProcessException(e.getLocalizedMessage(), e);
+                } catch (final MalformedRecordException e) {
+                    throw new ProcessException("Could not parse incoming data", e);
+                }
+            });
+        } catch (final Exception e) {
+            getLogger().error("Failed to process {}; will route to failure", new Object[] {flowFile, e});
+            session.transfer(flowFile, REL_FAILURE);
+            return -1;
+        }
+
+        flowFile = session.putAllAttributes(flowFile, attributes);
+        session.transfer(flowFile, REL_SUCCESS);
+
+        final int count = recordCount.get();
+        getLogger().debug("Successfully converted {} records for {}", new Object[] {count, flowFile});
+        return count;
+    }
+
+    /**
+     * Determines the schema to write a FlowFile with, given the schema of the records read from it
+     * and the plan they are hashed with.
+     */
+    protected abstract RecordSchema getWriteSchema(RecordSetWriterFactory writerFactory, Map<String, String> attributes, RecordSchema readSchema,
+                                                   HashPlan plan) throws SchemaNotFoundException, IOException;
+
+    /**
+     * @return a copy of <code>schema</code> in which the named fields have <code>dataType</code>, or
+     * <code>schema</code> itself if none of them need to change
+     */
+    static RecordSchema withFieldType(final RecordSchema schema, final Collection<String> fieldNames, final DataType dataType) {
+        boolean changed = false;
+        final List<RecordField> fields = new ArrayList<>(schema.getFieldCount());
+        for (final RecordField field : schema.getFields()) {
+            if (fieldNames.contains(field.getFieldName()) && !dataType.equals(field.getDataType())) {
+                // The old default value no longer fits the field, so it is dropped
+                fields.add(new RecordField(field.getFieldName(), dataType, null, field.getAliases(), field.isNullable()));
+                changed = true;
+            } else {
+                fields.add(field);
+            }
+        }
+        return changed ? new SimpleRecordSchema(fields) : schema;
+    }
+
+    /**
+     * Hashes one record read from the FlowFile and hands the resulting record or records to <code>sink</code>.
+     * Implementations must not keep per-record state on the processor, since records of different
+     * FlowFiles are processed concurrently.
+     */
+    abstract void processRecord(Record record, RecordSchema writeSchema, HashPlan plan, RecordSink sink) throws IOException;
+
+    /**
+     * Hashes a batch of records read from the FlowFile and hands the results to <code>sink</code> in
+     * order. Used when the Execution Mode is Parallel or Pipelined; by default every record is
+     * processed on its own.
+     */
+    void processRecords(final List<Record> records, final RecordSchema writeSchema, final HashPlan plan, final RecordSink sink) throws IOException {
+        for (final Record record : records) {
+            processRecord(record, writeSchema, plan, sink);
+        }
+    }
+
+    /**
+     * Receives the records produced by {@link #processRecord(Record, RecordSchema, HashPlan, RecordSink)}.
+     */
+    interface RecordSink {
+        void accept(Record record) throws IOException;
+    }
+
     @OnScheduled
     public void createRecordPaths(final ProcessContext context) {
         recordPathCache = new RecordPathCache(context.getProperties().size() * 2);
 
         final List<String> recordPaths = new ArrayList<>(context.getProperties().size() - 2);
+        final Map<String, String> destinationFields = new HashMap<>();
+        boolean planPerFlowFile = context.getProperty(HashUtils.HASH_ALGORITHM).isExpressionLanguagePresent();
 
         for (final PropertyDescriptor property : context.getProperties().keySet()) {
             if (property.isDynamic()) {
                 recordPaths.add(property.getName());
+                planPerFlowFile |= context.getProperty(property).isExpressionLanguagePresent();
+
+                final String destinationField = simpleFieldName(property.getName());
+                if (destinationField != null) {
+                    destinationFields.put(property.getName(), destinationField);
+                }
             }
         }
 
         Collections.sort(recordPaths);
 
         this.recordPaths = recordPaths;
+        this.destinationFields = destinationFields;
+        this.planPerFlowFile = planPerFlowFile;
+        this.scheduledPlan = null;
     }
-}
 
+    @OnScheduled
+    public void createHashContexts(final ProcessContext context) {
+        closeHashCache();
+        hashContexts.clear();
+        hashKey = context.getProperty(HASH_KEY).getValue();
+        outputEncoding = OutputEncoding.fromValue(context.getProperty(HashUtils.OUTPUT_ENCODING).getValue());
+        final Integer digestLength = context.getProperty(HashUtils.DIGEST_LENGTH).asInteger();
+        digestBits = digestLength == null ? 0 : digestLength;
+        hashCache = createHashCache(context);
+    }
+
+    private HashCache createHashCache(final ProcessContext context) {
+        final String cache = context.getProperty(HASH_CACHE).getValue();
+        final long maxEntries = context.getProperty(CACHE_MAX_ENTRIES).asLong();
+        final Double maxSize = context.getProperty(CACHE_MAX_SIZE).asDataSize(DataUnit.B);
+        final long maxBytes = maxSize == null ? 0 : maxSize.longValue();
+
+        if (CACHE_ON_HEAP.getValue().equals(cache)) {
+            final Long ttlMillis = context.getProperty(CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS);
+            return new OnHeapHashCache(maxEntries, maxBytes, ttlMillis == null ? 0 : ttlMillis);
+        } else if (!CACHE_OFF_HEAP.getValue().equals(cache)) {
+            return null;
+        }
+
+        final long offHeapBytes = maxBytes > 0 ? maxBytes : maxEntries * OffHeapHashCache.SLOT_WIDTH;
+        final byte[] fingerprintKey = OffHeapHashCache.fingerprintKey(hashKey,
+                evaluate(context.getProperty(HashUtils.HASH_ALGORITHM), null));
+        final String directory = context.getProperty(CACHE_DIRECTORY).getValue();
+        if (directory == null) {
+            return new OffHeapHashCache(offHeapBytes, fingerprintKey);
+        }
+
+        final Path file = Paths.get(directory, getIdentifier() + ".hashcache");
+        try {
+            final PersistentHashCache persistent = PersistentHashCache.open(file, offHeapBytes, fingerprintKey);
+            getLogger().info(persistent.isReused() ? "Reusing the Hash Cache in {}" : "Starting an empty Hash Cache in {}", new Object[] {file});
+            return persistent;
+        } catch (final IOException e) {
+            throw new ProcessException("Could not open the Hash Cache file " + file, e);
+        }
+    }
+
+    @OnStopped
+    public void closeHashCache() {
+        final HashCache hashCache = this.hashCache;
+        if (hashCache != null) {
+            hashCache.close();
+            this.hashCache = null;
+        }
+        hashContexts.clear();
+    }
+
+    @OnScheduled
+    public void createExecutor(final ProcessContext context) {
+        shutdownExecutor();
+        final String mode = context.getProperty(EXECUTION_MODE).getValue();
+        recordBatchSize = context.getProperty(RECORD_BATCH_SIZE).asInteger();
+        pipelined = EXECUTION_PIPELINED.getValue().equals(mode);
+
+        if (!EXECUTION_PARALLEL.getValue().equals(mode) && !pipelined) {
+            return;
+        }
+
+        final String pool = context.getProperty(WORKER_POOL).getValue();
+        final int threads = context.getProperty(HASHING_THREADS).asInteger();
+        // Two batches per worker keeps every worker busy while the oldest batch is being written
+        maxBatchesInFlight = threads * 2;
+
+        if (WORKER_POOL_VIRTUAL.getValue().equals(pool)) {
+            executor = SharedExecutors.virtualThreads();
+        } else if (WORKER_POOL_SHARED.getValue().equals(pool)) {
+            executor = SharedExecutors.forkJoinPool();
+        } else if (pipelined) {
+            // Each concurrent task runs a read and a hashing stage beside its own writing thread, and
+            // both have to start right away
+            executor = Executors.newFixedThreadPool(context.getMaxConcurrentTasks() * 2, newThreadFactory());
+            ownsExecutor = true;
+        } else {
+            executor = Executors.newFixedThreadPool(threads, newThreadFactory());
+            ownsExecutor = true;
+        }
+    }
+
+    @OnStopped
+    public void shutdownExecutor() {
+        final ExecutorService executor = this.executor;
+        if (executor != null && ownsExecutor) {
+            executor.shutdownNow();
+        }
+        this.executor = null;
+        this.ownsExecutor = false;
+    }
+
+    private ThreadFactory newThreadFactory() {
+        final String prefix = getClass().getSimpleName() + "[" + getIdentifier() + "]-hashing-";
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Resolves the hash settings for a FlowFile. A context is built once per algorithm and reused
+     * until the processor is scheduled again.
+     */
+    private HashContext getHashContext(final ProcessContext context, final FlowFile flowFile) {
+        final String algorithmValue = evaluate(context.getProperty(HashUtils.HASH_ALGORITHM), flowFile);
+        final HashAlgorithm algorithm = HashAlgorithm.fromValue(algorithmValue);
+        return hashContexts.computeIfAbsent(algorithm, a -> new HashContext(a, hashKey, hashCache, outputEncoding, digestBits));
+    }
+
+    /**
+     * Returns the plan for a FlowFile. When no property uses Expression Language the plan is only
+     * built for the first FlowFile after the processor is scheduled.
+     */
+    HashPlan getHashPlan(final ProcessContext context, final FlowFile flowFile) {
+        if (planPerFlowFile) {
+            return createHashPlan(context, flowFile);
+        }
+
+        HashPlan plan = scheduledPlan;
+        if (plan == null) {
+            plan = createHashPlan(context, null);
+            scheduledPlan = plan;
+        }
+        return plan;
+    }
+
+    private HashPlan createHashPlan(final ProcessContext context, final FlowFile flowFile) {
+        final HashContext hashContext = getHashContext(context, flowFile);
+
+        final List<HashPlan.PathMapping> mappings = new ArrayList<>(recordPaths.size());
+        for (final String recordPathText : recordPaths) {
+            final String replacementValue = evaluate(context.getProperty(recordPathText), flowFile);
+            final RecordPath destination = compileDestination(recordPathText);
+            mappings.add(new HashPlan.PathMapping(recordPathText, destination, recordPathCache.getCompiled(replacementValue),
+                    destination == null ? null : destinationFields.get(recordPathText), simpleFieldName(replacementValue)));
+        }
+
+        return new HashPlan(hashContext, mappings);
+    }
+
+    /**
+     * @return the field name if <code>path</code> selects a single top-level field, otherwise null
+     */
+    static String simpleFieldName(final String path) {
+        if (path == null || !SIMPLE_FIELD_PATH.matcher(path).matches()) {
+            return null;
+        }
+        return path.substring(1);
+    }
+
+    private static String evaluate(final PropertyValue value, final FlowFile flowFile) {
+        // Without a FlowFile when scheduling, where an expression can only read the Variable Registry
+        return flowFile == null
+                ? value.evaluateAttributeExpressions(Collections.<String, String>emptyMap()).getValue()
+                : value.evaluateAttributeExpressions(flowFile).getValue();
+    }
+
+    /**
+     * Compiles the name of a user-defined property into the RecordPath of the field it updates.
+     * Processors whose property names are not RecordPaths return null.
+     */
+    protected RecordPath compileDestination(final String propertyName) {
+        return null;
+    }
+}
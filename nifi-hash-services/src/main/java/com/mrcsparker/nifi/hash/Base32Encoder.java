@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+/**
+ * Unpadded Base32 encoding of digests, in either the RFC 4648 alphabet or Crockford's alphabet,
+ * which leaves out I, L, O and U so tokens survive being read aloud or typed by hand.
+ */
+final class Base32Encoder {
+
+    private static final char[] RFC4648 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+    private static final char[] CROCKFORD = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private Base32Encoder() {
+    }
+
+    /**
+     * @return the RFC 4648 Base32 encoding of <code>bytes</code>, without padding
+     */
+    static String encode(final byte[] bytes) {
+        return encode(bytes, RFC4648);
+    }
+
+    /**
+     * @return the Crockford Base32 encoding of <code>bytes</code>, without a check symbol
+     */
+    static String encodeCrockford(final byte[] bytes) {
+        return encode(bytes, CROCKFORD);
+    }
+
+    private static String encode(final byte[] bytes, final char[] alphabet) {
+        final char[] chars = HashBuffers.get().chars((bytes.length * 8 + 4) / 5);
+        int pos = 0;
+        // Bits not yet written sit at the bottom of buffer; anything shifted out of the int was already written
+        int buffer = 0;
+        int bits = 0;
+        for (final byte b : bytes) {
+            buffer = (buffer << 8) | (b & 0xff);
+            bits += 8;
+            while (bits >= 5) {
+                bits -= 5;
+                chars[pos++] = alphabet[(buffer >>> bits) & 31];
+            }
+        }
+        if (bits > 0) {
+            chars[pos++] = alphabet[(buffer << (5 - bits)) & 31];
+        }
+        return new String(chars, 0, pos);
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pure-Java BLAKE3 with 32 byte output, ported from the BLAKE3 reference implementation. Inputs
+ * of any length are hashed as a tree of 1024 byte chunks, but on a single thread: record values are
+ * short and the processors already spread records over threads.
+ * <p>
+ * Instances are reusable but not thread-safe. {@link #digest()} resets the instance to hash the next
+ * input with the same key.
+ */
+final class Blake3 {
+
+    static final int KEY_LENGTH = 32;
+    static final int OUT_LENGTH = 32;
+
+    private static final int BLOCK_LENGTH = 64;
+    private static final int CHUNK_LENGTH = 1024;
+    // Enough parent levels for 2^64 bytes of input
+    private static final int MAX_DEPTH = 54;
+
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 1 << 1;
+    private static final int PARENT = 1 << 2;
+    private static final int ROOT = 1 << 3;
+    private static final int KEYED_HASH = 1 << 4;
+    private static final int DERIVE_KEY_CONTEXT = 1 << 5;
+    private static final int DERIVE_KEY_MATERIAL = 1 << 6;
+
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+
+    // The message word order of every round, each the MSG_PERMUTATION of the one before
+    private static final int[][] SCHEDULE = new int[7][];
+
+    static {
+        final int[] permutation = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+        SCHEDULE[0] = new int[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+        for (int r = 1; r < SCHEDULE.length; r++) {
+            SCHEDULE[r] = new int[16];
+            for (int i = 0; i < 16; i++) {
+                SCHEDULE[r][i] = SCHEDULE[r - 1][permutation[i]];
+            }
+        }
+    }
+
+    private final int[] key;
+    private final int flags;
+
+    // The chunk being hashed
+    private final int[] cv = new int[8];
+    private final byte[] block = new byte[BLOCK_LENGTH];
+    private int blockLength;
+    private int blocksCompressed;
+    private long chunkCounter;
+
+    // Chaining values of completed subtrees, waiting for their right sibling
+    private final int[][] cvStack = new int[MAX_DEPTH][8];
+    private int cvStackLength;
+
+    private final int[] blockWords = new int[16];
+    private final int[] state = new int[16];
+
+    private Blake3(final int[] key, final int flags) {
+        this.key = key;
+        this.flags = flags;
+        reset();
+    }
+
+    /**
+     * @return an instance computing the plain BLAKE3 hash
+     */
+    static Blake3 newHash() {
+        return new Blake3(IV.clone(), 0);
+    }
+
+    /**
+     * @return an instance computing the BLAKE3 keyed hash with a {@link #KEY_LENGTH} byte key
+     */
+    static Blake3 newKeyedHash(final byte[] key) {
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("BLAKE3 keys are " + KEY_LENGTH + " bytes, not " + key.length);
+        }
+        final int[] words = new int[8];
+        for (int i = 0; i < 8; i++) {
+            words[i] = readWord(key, i * 4);
+        }
+        return new Blake3(words, KEYED_HASH);
+    }
+
+    /**
+     * @return the BLAKE3 derive_key output for <code>context</code> and <code>material</code>
+     */
+    static byte[] deriveKey(final String context, final byte[] material) {
+        final Blake3 contextHasher = new Blake3(IV.clone(), DERIVE_KEY_CONTEXT);
+        final byte[] contextBytes = context.getBytes(StandardCharsets.UTF_8);
+        contextHasher.update(contextBytes, 0, contextBytes.length);
+        final byte[] contextKey = contextHasher.digest();
+
+        final int[] words = new int[8];
+        for (int i = 0; i < 8; i++) {
+            words[i] = readWord(contextKey, i * 4);
+        }
+        final Blake3 materialHasher = new Blake3(words, DERIVE_KEY_MATERIAL);
+        materialHasher.update(material, 0, material.length);
+        return materialHasher.digest();
+    }
+
+    void update(final byte[] input, int offset, int length) {
+        while (length > 0) {
+            // A full chunk is only finished once more input arrives, since the last chunk is the root
+            if (chunkLength() == CHUNK_LENGTH) {
+                final int[] chunkCv = new int[8];
+                chaining(chunkOutputFlags(), chunkCv);
+                addChunkChainingValue(chunkCv, chunkCounter + 1);
+                chunkCounter++;
+                startChunk();
+            }
+
+            if (blockLength == BLOCK_LENGTH) {
+                readBlockWords();
+                compress(cv, blockWords, chunkCounter, BLOCK_LENGTH, flags | startFlag());
+                System.arraycopy(state, 0, cv, 0, 8);
+                blocksCompressed++;
+                blockLength = 0;
+            }
+
+            final int take = Math.min(Math.min(BLOCK_LENGTH - blockLength, CHUNK_LENGTH - chunkLength()), length);
+            System.arraycopy(input, offset, block, blockLength, take);
+            blockLength += take;
+            offset += take;
+            length -= take;
+        }
+    }
+
+    /**
+     * @return the {@link #OUT_LENGTH} byte hash of the input since the last digest
+     */
+    byte[] digest() {
+        // Output of the last chunk, merged with the stacked subtrees from right to left
+        readBlockWords();
+        final int[] inputCv = cv.clone();
+        long counter = chunkCounter;
+        int length = blockLength;
+        int outputFlags = chunkOutputFlags();
+
+        for (int i = cvStackLength - 1; i >= 0; i--) {
+            compress(inputCv, blockWords, counter, length, outputFlags);
+            System.arraycopy(cvStack[i], 0, blockWords, 0, 8);
+            System.arraycopy(state, 0, blockWords, 8, 8);
+            System.arraycopy(key, 0, inputCv, 0, 8);
+            counter = 0;
+            length = BLOCK_LENGTH;
+            outputFlags = flags | PARENT;
+        }
+
+        compress(inputCv, blockWords, counter, length, outputFlags | ROOT);
+        final byte[] out = new byte[OUT_LENGTH];
+        for (int i = 0; i < 8; i++) {
+            writeWord(state[i], out, i * 4);
+        }
+
+        reset();
+        return out;
+    }
+
+    private void reset() {
+        chunkCounter = 0;
+        cvStackLength = 0;
+        startChunk();
+    }
+
+    private void startChunk() {
+        System.arraycopy(key, 0, cv, 0, 8);
+        blockLength = 0;
+        blocksCompressed = 0;
+    }
+
+    private int chunkLength() {
+        return blocksCompressed * BLOCK_LENGTH + blockLength;
+    }
+
+    private int startFlag() {
+        return blocksCompressed == 0 ? CHUNK_START : 0;
+    }
+
+    private int chunkOutputFlags() {
+        return flags | startFlag() | CHUNK_END;
+    }
+
+    /**
+     * Writes the chaining value of the current chunk to <code>out</code>.
+     */
+    private void chaining(final int outputFlags, final int[] out) {
+        readBlockWords();
+        compress(cv, blockWords, chunkCounter, blockLength, outputFlags);
+        System.arraycopy(state, 0, out, 0, 8);
+    }
+
+    private void addChunkChainingValue(final int[] chunkCv, long totalChunks) {
+        // Each trailing zero bit of the chunk count completes a subtree, merging it with its left sibling
+        while ((totalChunks & 1) == 0) {
+            final int[] left = cvStack[--cvStackLength];
+            System.arraycopy(left, 0, blockWords, 0, 8);
+            System.arraycopy(chunkCv, 0, blockWords, 8, 8);
+            compress(key, blockWords, 0, BLOCK_LENGTH, flags | PARENT);
+            System.arraycopy(state, 0, chunkCv, 0, 8);
+            totalChunks >>>= 1;
+        }
+        System.arraycopy(chunkCv, 0, cvStack[cvStackLength++], 0, 8);
+    }
+
+    private void readBlockWords() {
+        for (int i = blockLength; i < BLOCK_LENGTH; i++) {
+            block[i] = 0;
+        }
+        for (int i = 0; i < 16; i++) {
+            blockWords[i] = readWord(block, i * 4);
+        }
+    }
+
+    /**
+     * The BLAKE3 compression function. Leaves the 16 output words in {@link #state}.
+     */
+    private void compress(final int[] chainingValue, final int[] m, final long counter, final int length, final int compressFlags) {
+        final int[] s = state;
+        System.arraycopy(chainingValue, 0, s, 0, 8);
+        s[8] = IV[0];
+        s[9] = IV[1];
+        s[10] = IV[2];
+        s[11] = IV[3];
+        s[12] = (int) counter;
+        s[13] = (int) (counter >>> 32);
+        s[14] = length;
+        s[15] = compressFlags;
+
+        for (final int[] w : SCHEDULE) {
+            g(s, 0, 4, 8, 12, m[w[0]], m[w[1]]);
+            g(s, 1, 5, 9, 13, m[w[2]], m[w[3]]);
+            g(s, 2, 6, 10, 14, m[w[4]], m[w[5]]);
+            g(s, 3, 7, 11, 15, m[w[6]], m[w[7]]);
+            g(s, 0, 5, 10, 15, m[w[8]], m[w[9]]);
+            g(s, 1, 6, 11, 12, m[w[10]], m[w[11]]);
+            g(s, 2, 7, 8, 13, m[w[12]], m[w[13]]);
+            g(s, 3, 4, 9, 14, m[w[14]], m[w[15]]);
+        }
+
+        for (int i = 0; i < 8; i++) {
+            s[i] ^= s[i + 8];
+            s[i + 8] ^= chainingValue[i];
+        }
+    }
+
+    private static void g(final int[] s, final int a, final int b, final int c, final int d, final int mx, final int my) {
+        s[a] += s[b] + mx;
+        s[d] = Integer.rotateRight(s[d] ^ s[a], 16);
+        s[c] += s[d];
+        s[b] = Integer.rotateRight(s[b] ^ s[c], 12);
+        s[a] += s[b] + my;
+        s[d] = Integer.rotateRight(s[d] ^ s[a], 8);
+        s[c] += s[d];
+        s[b] = Integer.rotateRight(s[b] ^ s[c], 7);
+    }
+
+    private static int readWord(final byte[] b, final int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+
+    private static void writeWord(final int word, final byte[] b, final int offset) {
+        b[offset] = (byte) word;
+        b[offset + 1] = (byte) (word >>> 8);
+        b[offset + 2] = (byte) (word >>> 16);
+        b[offset + 3] = (byte) (word >>> 24);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BLAKE3 in keyed mode over the UTF-8 value.
+ * <p>
+ * A Hash Key that is exactly 32 bytes of UTF-8 is used as the BLAKE3 key as is. Any other key is
+ * first turned into one with BLAKE3's own key derivation mode.
+ */
+final class Blake3Hasher extends KeyedHasher {
+
+    static final String KEY_CONTEXT = "com.mrcsparker.nifi.hash 2020-10-01 BLAKE3 Hash Key";
+
+    private final ThreadLocal<Blake3> hashers;
+
+    Blake3Hasher(final String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] blake3Key = keyBytes.length == Blake3.KEY_LENGTH ? keyBytes : Blake3.deriveKey(KEY_CONTEXT, keyBytes);
+        this.hashers = ThreadLocal.withInitial(() -> Blake3.newKeyedHash(blake3Key));
+    }
+
+    @Override
+    void encode(final HashBuffers buffers, final CharSequence val) {
+        buffers.encodeUtf8(val);
+    }
+
+    @Override
+    void digestBatch(final CharSequence[] values, final int count, final byte[][] digests) {
+        final HashBuffers buffers = HashBuffers.get();
+        final Blake3 blake3 = hashers.get();
+        for (int i = 0; i < count; i++) {
+            if (StringUtils.isBlank(values[i])) {
+                continue;
+            }
+            buffers.encodeUtf8(values[i]);
+            blake3.update(buffers.value, 0, buffers.valueLength);
+            digests[i] = blake3.digest();
+        }
+    }
+
+    @Override
+    byte[] digest(final HashBuffers buffers) {
+        final Blake3 blake3 = hashers.get();
+        blake3.update(buffers.value, 0, buffers.valueLength);
+        return blake3.digest();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keyed hasher for the Guava checksum and fingerprint functions, which have no cloneable state.
+ * The key is encoded once and fed to a fresh {@link Hasher} for every value.
+ */
+final class GuavaKeyedHasher extends KeyedHasher {
+
+    private final HashFunction hashFunction;
+    private final byte[] keyBytes;
+
+    GuavaKeyedHasher(final HashFunction hashFunction, final String key) {
+        this.hashFunction = hashFunction;
+        this.keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    byte[] digest(final HashBuffers buffers) {
+        return hash(buffers).asBytes();
+    }
+
+    @Override
+    long digestLong(final HashBuffers buffers) {
+        return hash(buffers).padToLong();
+    }
+
+    private HashCode hash(final HashBuffers buffers) {
+        final Hasher hasher = hashFunction.newHasher();
+        hasher.putBytes(keyBytes);
+        hasher.putBytes(buffers.value, 0, buffers.valueLength);
+        hasher.putBytes(buffers.base64, 0, buffers.base64Length);
+        return hasher.hash();
+    }
+}
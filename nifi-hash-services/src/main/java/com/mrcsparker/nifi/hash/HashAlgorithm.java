@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.nifi.components.AllowableValue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The values of {@link HashUtils#HASH_ALGORITHM}, each knowing how to build its {@link KeyedHasher}.
+ */
+enum HashAlgorithm {
+
+    ADLER32(HashUtils.HASH_ADLER32) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new GuavaKeyedHasher(Hashing.adler32(), key);
+        }
+    },
+    CRC32(HashUtils.HASH_CRC32) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new GuavaKeyedHasher(Hashing.crc32(), key);
+        }
+    },
+    CRC32C(HashUtils.HASH_CRC32C) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new GuavaKeyedHasher(Hashing.crc32c(), key);
+        }
+    },
+    FARMHASHFINGERPRINT64(HashUtils.HASH_FARMHASHFINGERPRINT64) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new GuavaKeyedHasher(Hashing.farmHashFingerprint64(), key);
+        }
+    },
+    SHA256(HashUtils.HASH_SHA256) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new KeyedDigest("SHA-256", key);
+        }
+    },
+    SHA384(HashUtils.HASH_SHA384) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new KeyedDigest("SHA-384", key);
+        }
+    },
+    SHA512(HashUtils.HASH_SHA512) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new KeyedDigest("SHA-512", key);
+        }
+    },
+    HMAC_SHA256(HashUtils.HASH_HMAC_SHA256) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new HmacHasher("HmacSHA256", key);
+        }
+    },
+    HMAC_SHA512(HashUtils.HASH_HMAC_SHA512) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new HmacHasher("HmacSHA512", key);
+        }
+    },
+    BLAKE3(HashUtils.HASH_BLAKE3) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            return new Blake3Hasher(key);
+        }
+    },
+    XXH3_64(HashUtils.HASH_XXH3_64) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            final long seed = Utf8Hasher.seedOf(key);
+            return Utf8Hasher.of64((input, length) -> Xxh3.hash64(input, length, seed));
+        }
+    },
+    XXH3_128(HashUtils.HASH_XXH3_128) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            final long seed = Utf8Hasher.seedOf(key);
+            return new Utf8Hasher((input, length) -> Xxh3.digest128(input, length, seed));
+        }
+    },
+    MURMUR3_128(HashUtils.HASH_MURMUR3_128) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            final HashFunction murmur = Hashing.murmur3_128((int) Utf8Hasher.seedOf(key));
+            return new Utf8Hasher((input, length) -> murmur.hashBytes(input, 0, length).asBytes());
+        }
+    },
+    SIPHASH24(HashUtils.HASH_SIPHASH24) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            // SipHash reads its key as two little-endian words
+            final ByteBuffer sipKey = ByteBuffer.wrap(Utf8Hasher.keyOf(key, 16)).order(ByteOrder.LITTLE_ENDIAN);
+            final HashFunction sipHash = Hashing.sipHash24(sipKey.getLong(0), sipKey.getLong(8));
+            return Utf8Hasher.of64((input, length) -> sipHash.hashBytes(input, 0, length).asLong());
+        }
+    },
+    HIGHWAYHASH(HashUtils.HASH_HIGHWAYHASH) {
+        @Override
+        KeyedHasher newHasher(final String key) {
+            final byte[] highwayKey = Utf8Hasher.keyOf(key, HighwayHash.KEY_LENGTH);
+            final ThreadLocal<HighwayHash> hashers = ThreadLocal.withInitial(() -> new HighwayHash(highwayKey));
+            return Utf8Hasher.of64((input, length) -> hashers.get().hash64(input, length));
+        }
+    };
+
+    private final AllowableValue allowableValue;
+
+    HashAlgorithm(final AllowableValue allowableValue) {
+        this.allowableValue = allowableValue;
+    }
+
+    AllowableValue getAllowableValue() {
+        return allowableValue;
+    }
+
+    /**
+     * Builds a hasher bound to <code>key</code>. This is the expensive part, so callers should do
+     * it once per schedule rather than once per value.
+     */
+    abstract KeyedHasher newHasher(String key);
+
+    /**
+     * Resolves a {@link HashUtils#HASH_ALGORITHM} value. Blank or unknown values fall back to SHA-256,
+     * as they always have.
+     */
+    static HashAlgorithm fromValue(final String value) {
+        if (value != null) {
+            for (final HashAlgorithm algorithm : values()) {
+                if (algorithm.allowableValue.getValue().equals(value)) {
+                    return algorithm;
+                }
+            }
+        }
+        return SHA256;
+    }
+}
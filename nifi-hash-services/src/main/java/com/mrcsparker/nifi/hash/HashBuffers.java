@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Per-thread scratch space used to build the hash input <code>key + val + base64(val)</code>
+ * and to encode the resulting digest without creating intermediate Strings. The buffers grow on
+ * demand and are never shrunk.
+ */
+final class HashBuffers {
+
+    private static final ThreadLocal<HashBuffers> BUFFERS = ThreadLocal.withInitial(HashBuffers::new);
+
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private String key;
+    private byte[] keyBytes;
+
+    byte[] value = new byte[256];
+    int valueLength;
+
+    byte[] base64 = new byte[344];
+    int base64Length;
+
+    private char[] chars = new char[128];
+
+    private HashBuffers() {
+    }
+
+    static HashBuffers get() {
+        return BUFFERS.get();
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the key, remembering the last key seen on this thread so the
+     * same key is only encoded once.
+     */
+    byte[] keyBytes(final String key) {
+        if (!key.equals(this.key)) {
+            this.keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            this.key = key;
+        }
+        return keyBytes;
+    }
+
+    /**
+     * Encodes <code>val</code> as UTF-8 into {@link #value} and the Base64 form of those bytes
+     * into {@link #base64}.
+     */
+    void encode(final CharSequence val) {
+        encodeUtf8(val);
+        encodeBase64();
+    }
+
+    void encodeUtf8(final CharSequence val) {
+        final int length = val.length();
+        ensureValueCapacity(length * 3);
+
+        final byte[] dst = value;
+        int pos = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = val.charAt(i);
+            if (c < 0x80) {
+                dst[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xc0 | (c >> 6));
+                dst[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                final int codePoint = Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(val.charAt(i + 1))
+                        ? Character.toCodePoint(c, val.charAt(++i))
+                        : -1;
+                if (codePoint < 0) {
+                    // Same replacement String.getBytes(UTF_8) uses for malformed input
+                    dst[pos++] = (byte) '?';
+                } else {
+                    dst[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                    dst[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    dst[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    dst[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+                }
+            } else {
+                dst[pos++] = (byte) (0xe0 | (c >> 12));
+                dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                dst[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        valueLength = pos;
+    }
+
+    private void encodeBase64() {
+        final int length = valueLength;
+        final int encodedLength = 4 * ((length + 2) / 3);
+        if (base64.length < encodedLength) {
+            base64 = new byte[Math.max(encodedLength, base64.length * 2)];
+        }
+
+        final byte[] src = value;
+        final byte[] dst = base64;
+        int sp = 0;
+        int dp = 0;
+        final int whole = length - length % 3;
+        while (sp < whole) {
+            final int bits = (src[sp++] & 0xff) << 16 | (src[sp++] & 0xff) << 8 | (src[sp++] & 0xff);
+            dst[dp++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+            dst[dp++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            dst[dp++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+            dst[dp++] = BASE64_ALPHABET[bits & 0x3f];
+        }
+
+        final int remaining = length - whole;
+        if (remaining == 1) {
+            final int bits = (src[sp] & 0xff) << 16;
+            dst[dp++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+            dst[dp++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            dst[dp++] = '=';
+            dst[dp++] = '=';
+        } else if (remaining == 2) {
+            final int bits = (src[sp] & 0xff) << 16 | (src[sp + 1] & 0xff) << 8;
+            dst[dp++] = BASE64_ALPHABET[(bits >>> 18) & 0x3f];
+            dst[dp++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            dst[dp++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+            dst[dp++] = '=';
+        }
+        base64Length = dp;
+    }
+
+    /**
+     * @return a character buffer of at least <code>capacity</code> characters for encoded output
+     */
+    char[] chars(final int capacity) {
+        if (chars.length < capacity) {
+            chars = new char[Math.max(capacity, chars.length * 2)];
+        }
+        return chars;
+    }
+
+    private void ensureValueCapacity(final int capacity) {
+        if (value.length < capacity) {
+            value = new byte[Math.max(capacity, value.length * 2)];
+        }
+    }
+}
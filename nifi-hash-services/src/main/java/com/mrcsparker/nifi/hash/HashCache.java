@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+/**
+ * Remembers digests computed by a record processor so repeated plaintext values are only hashed
+ * once. A cache belongs to one processor instance and one hash key; it is rebuilt whenever the
+ * processor is scheduled. Implementations must be safe for concurrent use.
+ */
+interface HashCache extends AutoCloseable {
+
+    /**
+     * @return the digest of <code>plaintext</code> under <code>algorithm</code>, or null if it is not cached
+     */
+    byte[] get(HashAlgorithm algorithm, String plaintext);
+
+    void put(HashAlgorithm algorithm, String plaintext, byte[] digest);
+
+    HashCacheStats getStats();
+
+    /**
+     * Releases the memory held by the cache. The cache must not be used afterwards.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * The hash settings that apply to a single FlowFile. Instances are immutable and are passed down
+ * the record processing call chain instead of being stored on the processor, so any number of
+ * concurrent tasks can share one processor instance.
+ */
+final class HashContext {
+
+    private final HashAlgorithm algorithm;
+    private final KeyedHasher hasher;
+    private final HashCache cache;
+    private final OutputEncoding encoding;
+    // Leading digest bits to keep, or 0 to keep the whole digest
+    private final int digestBits;
+    // True when fields get the algorithm's own 64 bit result rather than an encoding of the digest
+    private final boolean nativeLong;
+
+    HashContext(final HashAlgorithm algorithm, final String hashKey) {
+        this(algorithm, hashKey, null);
+    }
+
+    HashContext(final HashAlgorithm algorithm, final String hashKey, final HashCache cache) {
+        this(algorithm, hashKey, cache, OutputEncoding.HEX, 0);
+    }
+
+    /**
+     * @param cache digests already computed with <code>hashKey</code>, or null to always compute them
+     * @param encoding how digests are turned into field values
+     * @param digestBits the number of leading digest bits to keep, or 0 to keep the whole digest
+     */
+    HashContext(final HashAlgorithm algorithm, final String hashKey, final HashCache cache, final OutputEncoding encoding, final int digestBits) {
+        this.algorithm = algorithm;
+        this.hasher = algorithm.newHasher(hashKey);
+        this.cache = cache;
+        this.encoding = encoding;
+        this.digestBits = digestBits;
+        this.nativeLong = encoding == OutputEncoding.LONG && (digestBits == 0 || digestBits >= Long.SIZE);
+    }
+
+    HashAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    KeyedHasher getHasher() {
+        return hasher;
+    }
+
+    OutputEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the encoded hash of <code>val</code>, or <code>val</code> itself if it is blank and the
+     * encoding can hold it
+     */
+    Object hash(final String val) {
+        if (StringUtils.isBlank(val)) {
+            return val == null ? null : encoding.encodeBlank(val);
+        }
+        if (cache == null) {
+            return nativeLong ? hasher.digestLong(val) : encode(hasher.digest(val));
+        }
+
+        // Cached digests read back as the same long, given the byte order of KeyedHasher digests
+        byte[] digest = cache.get(algorithm, val);
+        if (digest == null) {
+            digest = hasher.digest(val);
+            cache.put(algorithm, val, digest);
+        }
+        return encode(digest);
+    }
+
+    /**
+     * Hashes the first <code>count</code> values into the same positions of <code>out</code>, treating
+     * null and blank values like {@link #hash(String)} does. The values missing from the cache are
+     * hashed together, so the hasher can share its setup between them.
+     */
+    void hashBatch(final CharSequence[] values, final int count, final Object[] out) {
+        if (cache == null && nativeLong) {
+            for (int i = 0; i < count; i++) {
+                final CharSequence val = values[i];
+                if (StringUtils.isBlank(val)) {
+                    out[i] = val == null ? null : encoding.encodeBlank(val.toString());
+                } else {
+                    out[i] = hasher.digestLong(val);
+                }
+            }
+            return;
+        }
+
+        final CharSequence[] misses = new CharSequence[count];
+        final int[] positions = new int[count];
+        int missCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            final CharSequence val = values[i];
+            if (StringUtils.isBlank(val)) {
+                out[i] = val == null ? null : encoding.encodeBlank(val.toString());
+                continue;
+            }
+
+            final byte[] cached = cache == null ? null : cache.get(algorithm, val.toString());
+            if (cached != null) {
+                out[i] = encode(cached);
+            } else {
+                misses[missCount] = val;
+                positions[missCount++] = i;
+            }
+        }
+
+        final byte[][] digests = new byte[missCount][];
+        hasher.digestBatch(misses, missCount, digests);
+        for (int i = 0; i < missCount; i++) {
+            if (cache != null) {
+                cache.put(algorithm, misses[i].toString(), digests[i]);
+            }
+            out[positions[i]] = encode(digests[i]);
+        }
+    }
+
+    private Object encode(final byte[] digest) {
+        return encoding.encode(truncate(digest, digestBits));
+    }
+
+    /**
+     * @return the first <code>bits</code> bits of <code>digest</code>, or <code>digest</code> itself if
+     * <code>bits</code> is 0 or covers all of it
+     */
+    static byte[] truncate(final byte[] digest, final int bits) {
+        if (bits <= 0 || bits >= digest.length * 8) {
+            return digest;
+        }
+
+        final byte[] truncated = Arrays.copyOf(digest, (bits + 7) / 8);
+        if (bits % 8 != 0) {
+            truncated[truncated.length - 1] &= (byte) (0xff << (8 - bits % 8));
+        }
+        return truncated;
+    }
+}
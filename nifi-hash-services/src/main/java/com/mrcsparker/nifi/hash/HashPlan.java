@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.apache.nifi.record.path.RecordPath;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.serialization.record.util.DataTypeUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Everything a record processor needs to hash the records of a FlowFile: the resolved
+ * {@link HashContext} and the compiled RecordPaths of every user-defined property. A plan is
+ * built once per FlowFile, or once per schedule when none of the properties use Expression Language,
+ * so nothing is evaluated or looked up per record.
+ */
+final class HashPlan {
+
+    // Upper bound on distinct schemas remembered per plan, in case a reader hands out a new schema per record
+    private static final int MAX_SCHEMA_PLANS = 64;
+
+    private final HashContext hashContext;
+    private final List<PathMapping> mappings;
+
+    private final ConcurrentMap<RecordSchema, SchemaPlan> schemaPlans = new ConcurrentHashMap<>();
+    private volatile SchemaPlan lastSchemaPlan;
+
+    HashPlan(final HashContext hashContext, final List<PathMapping> mappings) {
+        this.hashContext = hashContext;
+        this.mappings = Collections.unmodifiableList(mappings);
+    }
+
+    HashContext getHashContext() {
+        return hashContext;
+    }
+
+    List<PathMapping> getMappings() {
+        return mappings;
+    }
+
+    /**
+     * Returns the field access plan for records of the given schema. The last schema seen is checked
+     * by identity first, since readers usually share one schema instance across all of their records.
+     */
+    SchemaPlan getSchemaPlan(final RecordSchema schema) {
+        final SchemaPlan last = lastSchemaPlan;
+        if (last != null && last.schema == schema) {
+            return last;
+        }
+
+        SchemaPlan schemaPlan = schemaPlans.get(schema);
+        if (schemaPlan == null) {
+            if (schemaPlans.size() >= MAX_SCHEMA_PLANS) {
+                schemaPlans.clear();
+            }
+            schemaPlan = new SchemaPlan(schema, mappings);
+            schemaPlans.put(schema, schemaPlan);
+        }
+
+        lastSchemaPlan = schemaPlan;
+        return schemaPlan;
+    }
+
+    /**
+     * A user-defined property: its name, compiled as the destination RecordPath when the processor
+     * treats names as paths, and its evaluated value compiled as the replacement RecordPath.
+     * Paths of the form <code>/field</code> also carry the plain field name so they can be read and
+     * written without going through RecordPath.
+     */
+    static final class PathMapping {
+
+        private final String name;
+        private final RecordPath destination;
+        private final RecordPath replacement;
+        private final String destinationField;
+        private final String replacementField;
+
+        PathMapping(final String name, final RecordPath destination, final RecordPath replacement,
+                    final String destinationField, final String replacementField) {
+            this.name = name;
+            this.destination = destination;
+            this.replacement = replacement;
+            this.destinationField = destinationField;
+            this.replacementField = replacementField;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        RecordPath getDestination() {
+            return destination;
+        }
+
+        RecordPath getReplacement() {
+            return replacement;
+        }
+    }
+
+    /**
+     * The simple field paths of a plan resolved against one schema. A field is only resolved when it
+     * exists in the schema; anything else is left null and handled by RecordPath, which keeps the
+     * original behaviour for missing fields.
+     */
+    static final class SchemaPlan {
+
+        private final RecordSchema schema;
+        private final String[] destinationFields;
+        private final RecordField[] replacementFields;
+        private final boolean resolved;
+
+        private volatile WriteSchemaCheck writeSchemaCheck;
+
+        private SchemaPlan(final RecordSchema schema, final List<PathMapping> mappings) {
+            this.schema = schema;
+            this.destinationFields = new String[mappings.size()];
+            this.replacementFields = new RecordField[mappings.size()];
+
+            for (int i = 0; i < mappings.size(); i++) {
+                final PathMapping mapping = mappings.get(i);
+                if (mapping.destinationField != null && schema.getField(mapping.destinationField).isPresent()) {
+                    destinationFields[i] = mapping.destinationField;
+                }
+                if (mapping.replacementField != null) {
+                    final Optional<RecordField> field = schema.getField(mapping.replacementField);
+                    replacementFields[i] = field.orElse(null);
+                }
+            }
+
+            boolean resolved = true;
+            for (int i = 0; i < mappings.size(); i++) {
+                resolved &= destinationFields[i] != null && replacementFields[i] != null;
+            }
+            this.resolved = resolved;
+        }
+
+        /**
+         * @return true if every mapping reads and writes a plain field, so no RecordPath is needed at all
+         */
+        boolean isResolved() {
+            return resolved;
+        }
+
+        /**
+         * @return the name of the field the mapping at <code>index</code> writes to, or null if it needs RecordPath
+         */
+        String getDestinationField(final int index) {
+            return destinationFields[index];
+        }
+
+        /**
+         * @return the field the mapping at <code>index</code> reads from, or null if it needs RecordPath
+         */
+        RecordField getReplacementField(final int index) {
+            return replacementFields[index];
+        }
+
+        /**
+         * Checks whether records of this schema have to incorporate <code>writeSchema</code> before they
+         * are updated. That is only the case when merging the two would change the schema, which it
+         * does not when the writer inherits the reader's schema. The answer is remembered for the last
+         * write schema, which is the same instance for every record of a FlowFile.
+         */
+        boolean needsWriteSchema(final RecordSchema writeSchema) {
+            final WriteSchemaCheck check = writeSchemaCheck;
+            if (check != null && check.writeSchema == writeSchema) {
+                return check.incorporate;
+            }
+
+            final boolean incorporate = schema != writeSchema && !DataTypeUtils.merge(schema, writeSchema).equals(schema);
+            writeSchemaCheck = new WriteSchemaCheck(writeSchema, incorporate);
+            return incorporate;
+        }
+    }
+
+    private static final class WriteSchemaCheck {
+
+        private final RecordSchema writeSchema;
+        private final boolean incorporate;
+
+        private WriteSchemaCheck(final RecordSchema writeSchema, final boolean incorporate) {
+            this.writeSchema = writeSchema;
+            this.incorporate = incorporate;
+        }
+    }
+}
@@ -10,12 +10,6 @@ import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.ValidationContext;
 import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.expression.ExpressionLanguageScope;
-import org.apache.nifi.flowfile.FlowFile;
-import org.apache.nifi.flowfile.attributes.CoreAttributes;
-import org.apache.nifi.processor.ProcessContext;
-import org.apache.nifi.processor.ProcessSession;
-import org.apache.nifi.processor.exception.ProcessException;
-import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.record.path.FieldValue;
 import org.apache.nifi.record.path.RecordPath;
 import org.apache.nifi.record.path.RecordPathResult;
@@ -25,12 +19,13 @@ import org.apache.nifi.serialization.*;
 import org.apache.nifi.serialization.record.MapRecord;
 import org.apache.nifi.serialization.record.Record;
 import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
 import org.apache.nifi.serialization.record.RecordSchema;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -47,23 +42,23 @@ public class HashRecord extends AbstractRecordProcessor  {
 
     static final Logger LOG = LoggerFactory.getLogger(HashRecord.class);
 
-    static final PropertyDescriptor HASH_KEY = new PropertyDescriptor.Builder()
-            .name("key")
-            .displayName("Hash Key")
-            .description("Hash Key")
-            .required(true)
-            .sensitive(true)
-            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
-            .build();
-
-    private String hashKey;
-    private String hashAlgorithm;
-
     @Override
     protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         final List<PropertyDescriptor> properties = new ArrayList<>(super.getSupportedPropertyDescriptors());
         properties.add(HASH_KEY);
         properties.add(HashUtils.HASH_ALGORITHM);
+        properties.add(HashUtils.OUTPUT_ENCODING);
+        properties.add(HashUtils.DIGEST_LENGTH);
+        properties.add(FLOWFILE_BATCH_SIZE);
+        properties.add(EXECUTION_MODE);
+        properties.add(WORKER_POOL);
+        properties.add(HASHING_THREADS);
+        properties.add(RECORD_BATCH_SIZE);
+        properties.add(HASH_CACHE);
+        properties.add(CACHE_MAX_ENTRIES);
+        properties.add(CACHE_MAX_SIZE);
+        properties.add(CACHE_TTL);
+        properties.add(CACHE_DIRECTORY);
 
         return properties;
     }
@@ -83,133 +78,194 @@ public class HashRecord extends AbstractRecordProcessor  {
 
     @Override
     protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        final List<ValidationResult> results = new ArrayList<>(super.customValidate(validationContext));
         final boolean containsDynamic = validationContext.getProperties().keySet().stream()
                 .anyMatch(PropertyDescriptor::isDynamic);
 
-        if (containsDynamic) {
-            return Collections.emptyList();
+        if (!containsDynamic) {
+            results.add(new ValidationResult.Builder()
+                    .subject("User-defined Properties")
+                    .valid(false)
+                    .explanation("At least one RecordPath must be specified")
+                    .build());
+            return results;
+        }
+
+        // Only top-level fields have their type changed in the write schema, so any other field would
+        // be declared a string and have the digest turned into text by the writer
+        final OutputEncoding encoding = OutputEncoding.fromValue(validationContext.getProperty(HashUtils.OUTPUT_ENCODING).getValue());
+        if (encoding.getDataType().getFieldType() == RecordFieldType.STRING) {
+            return results;
         }
 
-        return Collections.singleton(new ValidationResult.Builder()
-                .subject("User-defined Properties")
-                .valid(false)
-                .explanation("At least one RecordPath must be specified")
-                .build());
+        for (final PropertyDescriptor property : validationContext.getProperties().keySet()) {
+            if (property.isDynamic() && simpleFieldName(property.getName()) == null) {
+                results.add(new ValidationResult.Builder()
+                        .subject(property.getName())
+                        .valid(false)
+                        .explanation("the " + encoding.getAllowableValue().getDisplayName() + " Output Encoding can only be used with "
+                                + "RecordPaths of a top-level field, such as /field")
+                        .build());
+            }
+        }
+        return results;
     }
 
     @Override
-    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        FlowFile flowFile = session.get();
-        if (flowFile == null) {
-            return;
-        }
+    protected RecordPath compileDestination(final String propertyName) {
+        return recordPathCache.getCompiled(propertyName);
+    }
 
-        final RecordReaderFactory readerFactory = context.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
-        final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
-
-        final Map<String, String> attributes = new HashMap<>();
-        final AtomicInteger recordCount = new AtomicInteger();
-
-        final FlowFile original = flowFile;
-        final Map<String, String> originalAttributes = flowFile.getAttributes();
-        try {
-            flowFile = session.write(flowFile, (in, out) -> {
-
-                try (final RecordReader reader = readerFactory.createRecordReader(originalAttributes, in, original.getSize(), getLogger())) {
-
-                    final RecordSchema writeSchema = writerFactory.getSchema(originalAttributes, reader.getSchema());
-                    try (final RecordSetWriter writer = writerFactory.createWriter(getLogger(), writeSchema, out, originalAttributes)) {
-                        writer.beginRecordSet();
-
-                        Record record;
-                        while ((record = reader.nextRecord()) != null) {
-                            final Record processed = processRecord(record, writeSchema, original, context);
-                            writer.write(processed);
-                        }
-
-                        final WriteResult writeResult = writer.finishRecordSet();
-                        attributes.put("record.count", String.valueOf(writeResult.getRecordCount()));
-                        attributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
-                        attributes.putAll(writeResult.getAttributes());
-                        recordCount.set(writeResult.getRecordCount());
-                    }
-                } catch (final SchemaNotFoundException e) {
-                    throw new ProcessException(e.getLocalizedMessage(), e);
-                } catch (final MalformedRecordException e) {
-                    throw new ProcessException("Could not parse incoming data", e);
-                }
-            });
-        } catch (final Exception e) {
-            getLogger().error("Failed to process {}; will route to failure", new Object[] {flowFile, e});
-            session.transfer(flowFile, REL_FAILURE);
-            return;
+    @Override
+    protected RecordSchema getWriteSchema(final RecordSetWriterFactory writerFactory, final Map<String, String> attributes, final RecordSchema readSchema,
+                                          final HashPlan plan) throws SchemaNotFoundException, IOException {
+        final OutputEncoding encoding = plan.getHashContext().getEncoding();
+        if (encoding == OutputEncoding.HEX) {
+            return writerFactory.getSchema(attributes, readSchema);
         }
 
-        flowFile = session.putAllAttributes(flowFile, attributes);
-        session.transfer(flowFile, REL_SUCCESS);
+        // Hashed top-level fields change type, so a writer that inherits the schema writes them as such
+        final HashPlan.SchemaPlan schemaPlan = plan.getSchemaPlan(readSchema);
+        final Set<String> hashedFields = new HashSet<>();
+        for (int i = 0; i < plan.getMappings().size(); i++) {
+            final String destinationField = schemaPlan.getDestinationField(i);
+            if (destinationField != null) {
+                hashedFields.add(destinationField);
+            }
+        }
+        return writerFactory.getSchema(attributes, withFieldType(readSchema, hashedFields, encoding.getDataType()));
+    }
 
-        final int count = recordCount.get();
-        session.adjustCounter("Records Processed", count, false);
-        getLogger().info("Successfully converted {} records for {}", new Object[] {count, flowFile});
+    @Override
+    void processRecord(final Record record, final RecordSchema writeSchema, final HashPlan plan, final RecordSink sink) throws IOException {
+        sink.accept(processRecord(record, writeSchema, plan));
     }
 
-    protected Record processRecord(Record record, RecordSchema writeSchema, FlowFile flowFile, ProcessContext context) {
+    /**
+     * Records whose mappings all resolve to plain fields are hashed a column at a time: the values of
+     * one mapping across the batch go to the hasher together. Every record still sees its mappings
+     * applied in order, so fields that feed other fields end up the same as one record at a time.
+     */
+    @Override
+    void processRecords(final List<Record> records, final RecordSchema writeSchema, final HashPlan plan, final RecordSink sink) throws IOException {
+        final Record[] output = new Record[records.size()];
+        final Record[] columnRecords = new Record[records.size()];
+        final HashPlan.SchemaPlan[] schemaPlans = new HashPlan.SchemaPlan[records.size()];
+        int columnCount = 0;
+
+        for (int i = 0; i < output.length; i++) {
+            final Record record = records.get(i);
+            final HashPlan.SchemaPlan schemaPlan = plan.getSchemaPlan(record.getSchema());
+            if (!schemaPlan.isResolved()) {
+                output[i] = processRecord(record, writeSchema, plan);
+                continue;
+            }
 
-        hashKey = context.getProperty(HASH_KEY).getValue();
-        hashAlgorithm = context.getProperty(HashUtils.HASH_ALGORITHM).getValue();
-        if (hashAlgorithm.isEmpty()) {
-            hashAlgorithm = HashUtils.HASH_SHA256.getValue();
+            if (schemaPlan.needsWriteSchema(writeSchema)) {
+                record.incorporateSchema(writeSchema);
+            }
+            output[i] = record;
+            columnRecords[columnCount] = record;
+            schemaPlans[columnCount++] = schemaPlan;
+        }
+
+        final HashContext hashContext = plan.getHashContext();
+        final String[] column = new String[columnCount];
+        final Object[] hashes = new Object[columnCount];
+        for (int m = 0; m < plan.getMappings().size(); m++) {
+            for (int i = 0; i < columnCount; i++) {
+                final Object value = columnRecords[i].getValue(schemaPlans[i].getReplacementField(m));
+                column[i] = value == null ? null : value.toString();
+            }
+            hashContext.hashBatch(column, columnCount, hashes);
+            for (int i = 0; i < columnCount; i++) {
+                columnRecords[i].setValue(schemaPlans[i].getDestinationField(m), hashes[i]);
+            }
+        }
+
+        for (final Record record : output) {
+            sink.accept(record);
         }
+    }
+
+    protected Record processRecord(Record record, RecordSchema writeSchema, HashPlan plan) {
+
+        // Resolve simple field paths against the schema the reader gave us. Any field found there is
+        // still present after the write schema has been incorporated.
+        HashPlan.SchemaPlan schemaPlan = plan.getSchemaPlan(record.getSchema());
 
         // Incorporate the RecordSchema that we will use for writing records into the Schema that we have
         // for the record, because it's possible that the updates to the record will not be valid otherwise.
-        record.incorporateSchema(writeSchema);
+        // This is skipped when the write schema adds nothing, which is the usual case of an inherited schema.
+        if (schemaPlan.needsWriteSchema(writeSchema)) {
+            record.incorporateSchema(writeSchema);
+        }
 
-        for (final String recordPathText : recordPaths) {
-            final RecordPath recordPath = recordPathCache.getCompiled(recordPathText);
-            final RecordPathResult result = recordPath.evaluate(record);
+        final HashContext hashContext = plan.getHashContext();
+        final List<HashPlan.PathMapping> mappings = plan.getMappings();
+        for (int i = 0; i < mappings.size(); i++) {
+            final HashPlan.PathMapping mapping = mappings.get(i);
+
+            if (schemaPlan != null) {
+                final String destinationField = schemaPlan.getDestinationField(i);
+                final RecordField replacementField = schemaPlan.getReplacementField(i);
+                if (destinationField != null && replacementField != null) {
+                    final Object value = record.getValue(replacementField);
+                    record.setValue(destinationField, value == null ? null : hashContext.hash(value.toString()));
+                    continue;
+                }
+            }
 
-            final String replacementValue = context.getProperty(recordPathText).evaluateAttributeExpressions(flowFile).getValue();
-            final RecordPath replacementRecordPath = recordPathCache.getCompiled(replacementValue);
+            final Record original = record;
+            final RecordPathResult result = mapping.getDestination().evaluate(record);
+            final RecordPath replacementRecordPath = mapping.getReplacement();
 
             // If we have an Absolute RecordPath, we need to evaluate the RecordPath only once against the Record.
             // If the RecordPath is a Relative Path, then we have to evaluate it against each FieldValue.
             if (replacementRecordPath.isAbsolute()) {
-                record = processAbsolutePath(replacementRecordPath, result.getSelectedFields(), record);
+                record = processAbsolutePath(replacementRecordPath, result.getSelectedFields(), record, hashContext);
             } else {
-                record = processRelativePath(replacementRecordPath, result.getSelectedFields(), record);
+                record = processRelativePath(replacementRecordPath, result.getSelectedFields(), record, hashContext);
+            }
+
+            if (record != original) {
+                // The whole record was replaced, so the resolved fields no longer apply
+                schemaPlan = null;
             }
         }
 
         return record;
     }
 
-    private Record processAbsolutePath(final RecordPath replacementRecordPath, final Stream<FieldValue> destinationFields, final Record record) {
+    private Record processAbsolutePath(final RecordPath replacementRecordPath, final Stream<FieldValue> destinationFields, final Record record,
+                                       final HashContext hashContext) {
         final RecordPathResult replacementResult = replacementRecordPath.evaluate(record);
         final List<FieldValue> selectedFields = replacementResult.getSelectedFields().collect(Collectors.toList());
         final List<FieldValue> destinationFieldValues = destinationFields.collect(Collectors.toList());
 
-        return updateRecord(destinationFieldValues, selectedFields, record);
+        return updateRecord(destinationFieldValues, selectedFields, record, hashContext);
     }
 
-    private Record processRelativePath(final RecordPath replacementRecordPath, final Stream<FieldValue> destinationFields, Record record) {
+    private Record processRelativePath(final RecordPath replacementRecordPath, final Stream<FieldValue> destinationFields, Record record,
+                                       final HashContext hashContext) {
         final List<FieldValue> destinationFieldValues = destinationFields.collect(Collectors.toList());
 
         for (final FieldValue fieldVal : destinationFieldValues) {
             final RecordPathResult replacementResult = replacementRecordPath.evaluate(record, fieldVal);
             final List<FieldValue> selectedFields = replacementResult.getSelectedFields().collect(Collectors.toList());
-            final Object replacementObject = getReplacementObject(selectedFields);
+            final Object replacementObject = getReplacementObject(selectedFields, hashContext);
             fieldVal.updateValue(replacementObject);
 
-            record = updateRecord(destinationFieldValues, selectedFields, record);
+            record = updateRecord(destinationFieldValues, selectedFields, record, hashContext);
         }
 
         return record;
     }
 
-    private Record updateRecord(final List<FieldValue> destinationFields, final List<FieldValue> selectedFields, final Record record) {
+    private Record updateRecord(final List<FieldValue> destinationFields, final List<FieldValue> selectedFields, final Record record,
+                                final HashContext hashContext) {
         if (destinationFields.size() == 1 && !destinationFields.get(0).getParentRecord().isPresent()) {
-            final Object replacement = getReplacementObject(selectedFields);
+            final Object replacement = getReplacementObject(selectedFields, hashContext);
             if (replacement == null) {
                 return record;
             }
@@ -227,13 +283,13 @@ public class HashRecord extends AbstractRecordProcessor  {
             return mapRecord;
         } else {
             for (final FieldValue fieldVal : destinationFields) {
-                fieldVal.updateValue(getReplacementObject(selectedFields));
+                fieldVal.updateValue(getReplacementObject(selectedFields, hashContext));
             }
             return record;
         }
     }
 
-    private Object getReplacementObject(final List<FieldValue> selectedFields) {
+    private Object getReplacementObject(final List<FieldValue> selectedFields, final HashContext hashContext) {
         if (selectedFields.size() > 1) {
             final List<RecordField> fields = selectedFields.stream().map(FieldValue::getField).collect(Collectors.toList());
             final RecordSchema schema = new SimpleRecordSchema(fields);
@@ -251,7 +307,7 @@ public class HashRecord extends AbstractRecordProcessor  {
             return null;
         } else {
             String clearTextValue = selectedFields.get(0).getValue().toString();
-           return HashUtils.getHash(hashAlgorithm, hashKey, clearTextValue);
+            return hashContext.hash(clearTextValue);
         }
     }
 
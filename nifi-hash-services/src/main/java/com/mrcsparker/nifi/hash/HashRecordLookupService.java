@@ -24,10 +24,10 @@ import org.apache.nifi.controller.ConfigurationContext;
 import org.apache.nifi.lookup.LookupFailureException;
 import org.apache.nifi.reporting.InitializationException;
 import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
 import org.apache.nifi.serialization.record.MapRecord;
 import org.apache.nifi.serialization.record.Record;
 import org.apache.nifi.serialization.record.RecordField;
-import org.apache.nifi.serialization.record.RecordFieldType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +44,9 @@ public class HashRecordLookupService extends AbstractHashLookupService<Record> {
     public HashRecordLookupService() {
         final List<PropertyDescriptor> pds = new ArrayList<>();
         pds.add(HASH_KEY);
+        pds.add(HASH_ALGORITHM);
+        pds.add(OUTPUT_ENCODING);
+        pds.add(DIGEST_LENGTH);
         propertyDescriptors = Collections.unmodifiableList(pds);
     }
 
@@ -55,19 +58,26 @@ public class HashRecordLookupService extends AbstractHashLookupService<Record> {
     @Override
     public Optional<Record> lookup(Map<String, Object> coordinates) throws LookupFailureException {
 
-        List<RecordField> fields = new ArrayList<>();
-        Map<String, Object> res = new HashMap<>();
+        DataType hashDataType = getHashDataType();
+        List<RecordField> fields = new ArrayList<>(coordinates.size());
+        String[] columns = new String[coordinates.size()];
+        String[] values = new String[coordinates.size()];
+        Object[] hashes = new Object[coordinates.size()];
+
+        int i = 0;
+        for (Map.Entry<String, Object> coordinate : coordinates.entrySet()) {
+            fields.add(new RecordField(coordinate.getKey(), hashDataType));
+            columns[i] = coordinate.getKey();
+            values[i++] = coordinate.getValue() == null ? null : coordinate.getValue().toString();
+        }
 
-        for (String column : coordinates.keySet()) {
-            fields.add(new RecordField(column, RecordFieldType.STRING.getDataType()));
+        // Null and blank values come back as they are, except with the Long encoding, which
+        // returns null for them since a long cannot hold a blank string
+        hashAll(values, hashes);
 
-            if (coordinates.get(column) == null) {
-                res.put(column, null);
-            } else if (coordinates.get(column).toString().isEmpty()) {
-                res.put(column, "");
-            } else {
-                res.put(column, getHash(coordinates.get(column).toString()));
-            }
+        Map<String, Object> res = new HashMap<>();
+        for (i = 0; i < columns.length; i++) {
+            res.put(columns[i], hashes[i]);
         }
 
         return Optional.of(new MapRecord(new SimpleRecordSchema(fields), res));
@@ -87,5 +97,6 @@ public class HashRecordLookupService extends AbstractHashLookupService<Record> {
     @OnEnabled
     public void onEnabled(final ConfigurationContext context) throws InitializationException {
         this.hashKey = context.getProperty(HASH_KEY).getValue();
+        this.hashContext = createHashContext(context, this.hashKey);
     }
 }
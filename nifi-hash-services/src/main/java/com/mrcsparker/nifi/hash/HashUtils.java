@@ -17,14 +17,14 @@
 package com.mrcsparker.nifi.hash;
 
 import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.processor.util.StandardValidators;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 import java.util.function.Supplier;
 
 public class HashUtils {
@@ -57,16 +57,96 @@ public class HashUtils {
             "sha512",
             "A hash function implementing the SHA-512 algorithm (512 hash bits).");
 
+    public static final AllowableValue HASH_HMAC_SHA256 = new AllowableValue("hash-hmac-sha256",
+            "hmac-sha256",
+            "HMAC-SHA256 as described by RFC 2104, keyed with the Hash Key (256 hash bits).");
+
+    public static final AllowableValue HASH_HMAC_SHA512 = new AllowableValue("hash-hmac-sha512",
+            "hmac-sha512",
+            "HMAC-SHA512 as described by RFC 2104, keyed with the Hash Key (512 hash bits).");
+
+    public static final AllowableValue HASH_BLAKE3 = new AllowableValue("hash-blake3",
+            "blake3",
+            "BLAKE3 in keyed mode (256 hash bits). A Hash Key of exactly 32 bytes is used as the BLAKE3 key, any other key is run through "
+                    + "BLAKE3 key derivation first.");
+
+    public static final AllowableValue HASH_XXH3_64 = new AllowableValue("hash-xxh3-64",
+            "xxh3-64",
+            "XXH3 (64 hash bits), seeded from the Hash Key. Fast but not cryptographic: use it for partitioning and deduplication, "
+                    + "not for hiding values.");
+
+    public static final AllowableValue HASH_XXH3_128 = new AllowableValue("hash-xxh3-128",
+            "xxh3-128",
+            "XXH3 (128 hash bits), seeded from the Hash Key. Fast but not cryptographic.");
+
+    public static final AllowableValue HASH_MURMUR3_128 = new AllowableValue("hash-murmur3-128",
+            "murmur3_128",
+            "MurmurHash3 x64 128 (128 hash bits), seeded from the Hash Key. Fast but not cryptographic.");
+
+    public static final AllowableValue HASH_SIPHASH24 = new AllowableValue("hash-siphash24",
+            "siphash-2-4",
+            "SipHash-2-4 (64 hash bits), a keyed PRF built for short inputs such as codes and identifiers. A Hash Key of exactly 16 bytes "
+                    + "is used as the SipHash key, any other key is replaced by its SHA-256 first.");
+
+    public static final AllowableValue HASH_HIGHWAYHASH = new AllowableValue("hash-highwayhash",
+            "highwayhash-64",
+            "HighwayHash (64 hash bits), a keyed PRF built for short inputs. A Hash Key of exactly 32 bytes is used as the HighwayHash key, "
+                    + "any other key is replaced by its SHA-256 first.");
+
     static final PropertyDescriptor HASH_ALGORITHM = new PropertyDescriptor.Builder()
             .name("hash-algorithm")
             .displayName("Hash Algorithm")
-            .description("Specifies which hash algorithm to use")
-            .allowableValues(HASH_ADLER32, HASH_CRC32, HASH_CRC32C, HASH_FARMHASHFINGERPRINT64, HASH_SHA256, HASH_SHA384, HASH_SHA512)
+            .description("Specifies which hash algorithm to use. The checksums and SHA-2 digests hash the Hash Key, the value and its "
+                    + "Base64 form; the algorithms that take the Hash Key as a key or seed hash the value alone.")
+            .allowableValues(HASH_ADLER32, HASH_CRC32, HASH_CRC32C, HASH_FARMHASHFINGERPRINT64, HASH_SHA256, HASH_SHA384, HASH_SHA512,
+                    HASH_HMAC_SHA256, HASH_HMAC_SHA512, HASH_BLAKE3, HASH_XXH3_64, HASH_XXH3_128, HASH_MURMUR3_128,
+                    HASH_SIPHASH24, HASH_HIGHWAYHASH)
             .defaultValue(HASH_SHA256.getValue())
             .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
             .required(true)
             .build();
 
+    public static final AllowableValue ENCODING_HEX = new AllowableValue("hex", "Hex",
+            "The digest as lowercase hexadecimal text, two characters per byte.");
+
+    public static final AllowableValue ENCODING_BASE64URL = new AllowableValue("base64url", "Base64url",
+            "The digest in the URL and filename safe Base64 alphabet of RFC 4648, without padding. A 128 bit digest takes 22 characters.");
+
+    public static final AllowableValue ENCODING_BASE32 = new AllowableValue("base32", "Base32",
+            "The digest in the Base32 alphabet of RFC 4648, without padding.");
+
+    public static final AllowableValue ENCODING_CROCKFORD_BASE32 = new AllowableValue("crockford-base32", "Crockford Base32",
+            "The digest in Crockford's Base32 alphabet, which leaves out I, L, O and U, without padding or a check symbol.");
+
+    public static final AllowableValue ENCODING_BINARY = new AllowableValue("binary", "Binary",
+            "The raw digest bytes. Hashed fields are written as an array of bytes, such as Avro bytes, which is half the size of hex.");
+
+    public static final AllowableValue ENCODING_LONG = new AllowableValue("long", "Long",
+            "The 64 bit result of the algorithm as a signed long, such as the FarmHash fingerprint or the XXH3, SipHash or HighwayHash "
+                    + "value. For wider digests it is their first 64 bits read little-endian, like Guava's HashCode.asLong, and pairs "
+                    + "with a Digest Length of 64 or less; shorter digests are zero-extended. Hashed fields are written as longs and "
+                    + "blank values as null.");
+
+    static final PropertyDescriptor OUTPUT_ENCODING = new PropertyDescriptor.Builder()
+            .name("output-encoding")
+            .displayName("Output Encoding")
+            .description("How digests are written. The type of each hashed field in the schema handed to the Record Writer follows the encoding; "
+                    + "blank values are written as they are, except with Long, which writes them as null. Binary and Long can only be used with RecordPaths of top-level fields, "
+                    + "such as /field, since only those have their type changed.")
+            .allowableValues(ENCODING_HEX, ENCODING_BASE64URL, ENCODING_BASE32, ENCODING_CROCKFORD_BASE32, ENCODING_BINARY, ENCODING_LONG)
+            .defaultValue(ENCODING_HEX.getValue())
+            .required(true)
+            .build();
+
+    static final PropertyDescriptor DIGEST_LENGTH = new PropertyDescriptor.Builder()
+            .name("digest-length")
+            .displayName("Digest Length")
+            .description("The number of leading bits of each digest to keep, such as 128. When not set, or longer than the digest, "
+                    + "the whole digest is kept. Lengths that are not a multiple of 8 zero the remaining bits of the last byte.")
+            .required(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
     static String adler32(String hash, String val) {
         return doHash(Hashing::adler32, hash, val);
     }
@@ -95,12 +175,64 @@ public class HashUtils {
         return doHash(Hashing::sha512, hash, val);
     }
 
+    static String hmacSha256(String hash, String val) {
+        return HashAlgorithm.HMAC_SHA256.newHasher(hash).hash(val);
+    }
+
+    static String hmacSha512(String hash, String val) {
+        return HashAlgorithm.HMAC_SHA512.newHasher(hash).hash(val);
+    }
+
+    static String blake3(String hash, String val) {
+        return HashAlgorithm.BLAKE3.newHasher(hash).hash(val);
+    }
+
+    static String xxh3Hash64(String hash, String val) {
+        return HashAlgorithm.XXH3_64.newHasher(hash).hash(val);
+    }
+
+    static String xxh3Hash128(String hash, String val) {
+        return HashAlgorithm.XXH3_128.newHasher(hash).hash(val);
+    }
+
+    static String murmur3Hash128(String hash, String val) {
+        return HashAlgorithm.MURMUR3_128.newHasher(hash).hash(val);
+    }
+
+    static String sipHash24(String hash, String val) {
+        return HashAlgorithm.SIPHASH24.newHasher(hash).hash(val);
+    }
+
+    static String highwayHash64(String hash, String val) {
+        return HashAlgorithm.HIGHWAYHASH.newHasher(hash).hash(val);
+    }
+
+    /**
+     * Hashes a batch of values with SHA-256, like {@link #sha256(String, String)} does one at a time.
+     * Null and blank values are returned as they are.
+     */
+    static String[] sha256(String hash, String[] values) {
+        final String[] hashed = new String[values.length];
+        HashAlgorithm.SHA256.newHasher(hash).hashBatch(values, values.length, hashed);
+        return hashed;
+    }
+
+    /**
+     * Hashes <code>hash + val + base64(val)</code>. The pieces are streamed into the hasher from
+     * per-thread buffers instead of being concatenated into a new String first.
+     */
     private static String doHash(Supplier<HashFunction> f, String hash, String val) {
         if (StringUtils.isBlank(val)) {
             return val;
         } else {
-            String newVal = hash + val + Base64.getEncoder().encodeToString(val.getBytes());
-            return f.get().hashString(newVal, StandardCharsets.UTF_8).toString();
+            final HashBuffers buffers = HashBuffers.get();
+            buffers.encode(val);
+
+            final Hasher hasher = f.get().newHasher();
+            hasher.putBytes(buffers.keyBytes(hash));
+            hasher.putBytes(buffers.value, 0, buffers.valueLength);
+            hasher.putBytes(buffers.base64, 0, buffers.base64Length);
+            return HexEncoder.encode(hasher.hash().asBytes());
         }
     }
 
@@ -110,22 +242,60 @@ public class HashUtils {
             return val;
         }
 
-        if (hashAlgorithm.equals(HashUtils.HASH_ADLER32.getValue())) {
-            return HashUtils.adler32(hash, val);
-        } else if (hashAlgorithm.equals(HashUtils.HASH_CRC32.getValue())) {
-            return HashUtils.adler32(hash, val);
-        } else if (hashAlgorithm.equals(HashUtils.HASH_CRC32C.getValue())) {
-            return HashUtils.crc32c(hash, val);
-        } else if (hashAlgorithm.equals(HashUtils.HASH_FARMHASHFINGERPRINT64.getValue())) {
-            return HashUtils.farmHashFingerprint64(hash, val);
-        } else if (hashAlgorithm.equals(HashUtils.HASH_SHA256.getValue())) {
-            return HashUtils.sha256(hash, val);
-        } else if (hashAlgorithm.equals(HashUtils.HASH_SHA384.getValue())) {
-            return HashUtils.sha384(hash, val);
-        } else if (hashAlgorithm.equals(HashUtils.HASH_SHA512.getValue())) {
-            return HashUtils.sha512(hash, val);
+        switch (HashAlgorithm.fromValue(hashAlgorithm)) {
+            case ADLER32:
+                return HashUtils.adler32(hash, val);
+            case CRC32:
+                return HashUtils.crc32(hash, val);
+            case CRC32C:
+                return HashUtils.crc32c(hash, val);
+            case FARMHASHFINGERPRINT64:
+                return HashUtils.farmHashFingerprint64(hash, val);
+            case SHA384:
+                return HashUtils.sha384(hash, val);
+            case SHA512:
+                return HashUtils.sha512(hash, val);
+            case HMAC_SHA256:
+                return HashUtils.hmacSha256(hash, val);
+            case HMAC_SHA512:
+                return HashUtils.hmacSha512(hash, val);
+            case BLAKE3:
+                return HashUtils.blake3(hash, val);
+            case XXH3_64:
+                return HashUtils.xxh3Hash64(hash, val);
+            case XXH3_128:
+                return HashUtils.xxh3Hash128(hash, val);
+            case MURMUR3_128:
+                return HashUtils.murmur3Hash128(hash, val);
+            case SIPHASH24:
+                return HashUtils.sipHash24(hash, val);
+            case HIGHWAYHASH:
+                return HashUtils.highwayHash64(hash, val);
+            default:
+                return HashUtils.sha256(hash, val);
         }
+    }
+
+    /**
+     * Hashes the first <code>count</code> values into the same positions of <code>out</code>, like
+     * {@link #getHash(String, String, String)} does one value at a time. The key state, encoders and
+     * scratch space are set up once for the whole batch. <code>out</code> may be <code>values</code> itself.
+     */
+    static void hashBatch(String hashAlgorithm, String hash, CharSequence[] values, int count, String[] out) {
+        if (hashAlgorithm == null) {
+            for (int i = 0; i < count; i++) {
+                out[i] = values[i] == null ? null : values[i].toString();
+            }
+            return;
+        }
+        newHasher(hashAlgorithm, hash).hashBatch(values, count, out);
+    }
 
-        return HashUtils.sha256(hash, val);
+    /**
+     * Resolves <code>hashAlgorithm</code> and binds it to <code>hash</code>. Callers in the per-record
+     * path should hold on to the returned hasher instead of calling {@link #getHash(String, String, String)}.
+     */
+    static KeyedHasher newHasher(String hashAlgorithm, String hash) {
+        return HashAlgorithm.fromValue(hashAlgorithm).newHasher(hash);
     }
 }
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+/**
+ * Lower case hex encoding of digests, producing the same text as Guava's <code>HashCode.toString()</code>.
+ * Each byte is looked up as a pair of characters in a 512 entry table and written straight into the
+ * destination, so the only allocation is the resulting String.
+ */
+final class HexEncoder {
+
+    // PAIRS[2 * b] and PAIRS[2 * b + 1] are the two hex digits of the unsigned byte b
+    private static final char[] PAIRS = new char[512];
+
+    static {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        for (int b = 0; b < 256; b++) {
+            PAIRS[2 * b] = digits[b >>> 4];
+            PAIRS[2 * b + 1] = digits[b & 0xf];
+        }
+    }
+
+    private HexEncoder() {
+    }
+
+    /**
+     * @return the hex encoding of <code>bytes</code>
+     */
+    static String encode(final byte[] bytes) {
+        final char[] chars = HashBuffers.get().chars(bytes.length * 2);
+        final int length = encode(bytes, 0, bytes.length, chars, 0);
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Writes the hex encoding of <code>length</code> bytes of <code>src</code> into <code>dst</code>.
+     *
+     * @return the number of characters written, always <code>2 * length</code>
+     */
+    static int encode(final byte[] src, final int offset, final int length, final char[] dst, final int dstOffset) {
+        int dp = dstOffset;
+        for (int i = offset; i < offset + length; i++) {
+            final int pair = (src[i] & 0xff) << 1;
+            dst[dp++] = PAIRS[pair];
+            dst[dp++] = PAIRS[pair + 1];
+        }
+        return dp - dstOffset;
+    }
+
+    /**
+     * Writes the hex encoding of <code>length</code> bytes of <code>src</code> into <code>dst</code> as
+     * ASCII, for destinations that hold encoded text rather than characters.
+     *
+     * @return the number of bytes written, always <code>2 * length</code>
+     */
+    static int encode(final byte[] src, final int offset, final int length, final byte[] dst, final int dstOffset) {
+        int dp = dstOffset;
+        for (int i = offset; i < offset + length; i++) {
+            final int pair = (src[i] & 0xff) << 1;
+            dst[dp++] = (byte) PAIRS[pair];
+            dst[dp++] = (byte) PAIRS[pair + 1];
+        }
+        return dp - dstOffset;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+/**
+ * A pure-Java HighwayHash with 64 bit output and a 256 bit key, following the portable reference
+ * implementation. Instances are reusable but not thread-safe; {@link #hash64(byte[], int)} resets
+ * the state on every call.
+ */
+final class HighwayHash {
+
+    static final int KEY_LENGTH = 32;
+
+    private static final long[] INIT0 = {0xdbe6d5d5fe4cce2fL, 0xa4093822299f31d0L, 0x13198a2e03707344L, 0x243f6a8885a308d3L};
+    private static final long[] INIT1 = {0x3bd39e10cb0ef593L, 0xc0acf169b5f18a8cL, 0xbe5466cf34e90c6cL, 0x452821e638d01377L};
+
+    private final long[] key = new long[4];
+    private final long[] v0 = new long[4];
+    private final long[] v1 = new long[4];
+    private final long[] mul0 = new long[4];
+    private final long[] mul1 = new long[4];
+    private final byte[] packet = new byte[32];
+
+    HighwayHash(final byte[] key) {
+        if (key.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("HighwayHash keys are " + KEY_LENGTH + " bytes, not " + key.length);
+        }
+        for (int i = 0; i < 4; i++) {
+            this.key[i] = readLong(key, i * 8);
+        }
+    }
+
+    /**
+     * @return the hash of the first <code>length</code> bytes of <code>input</code>
+     */
+    long hash64(final byte[] input, final int length) {
+        reset();
+
+        int pos = 0;
+        for (; pos + 32 <= length; pos += 32) {
+            update(readLong(input, pos), readLong(input, pos + 8), readLong(input, pos + 16), readLong(input, pos + 24));
+        }
+        if ((length & 31) != 0) {
+            updateRemainder(input, pos, length & 31);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            update(rotate(v0[2]), rotate(v0[3]), rotate(v0[0]), rotate(v0[1]));
+        }
+        return v0[0] + v1[0] + mul0[0] + mul1[0];
+    }
+
+    private void reset() {
+        for (int i = 0; i < 4; i++) {
+            mul0[i] = INIT0[i];
+            mul1[i] = INIT1[i];
+            v0[i] = INIT0[i] ^ key[i];
+            v1[i] = INIT1[i] ^ rotate(key[i]);
+        }
+    }
+
+    private void updateRemainder(final byte[] input, final int pos, final int sizeMod32) {
+        final int sizeMod4 = sizeMod32 & 3;
+        final int remainder = sizeMod32 & ~3;
+
+        for (int i = 0; i < 4; i++) {
+            v0[i] += ((long) sizeMod32 << 32) + sizeMod32;
+        }
+        rotate32By(sizeMod32, v1);
+
+        java.util.Arrays.fill(packet, (byte) 0);
+        System.arraycopy(input, pos, packet, 0, remainder);
+        if ((sizeMod32 & 16) != 0) {
+            for (int i = 0; i < 4; i++) {
+                packet[28 + i] = input[pos + remainder + i + sizeMod4 - 4];
+            }
+        } else if (sizeMod4 != 0) {
+            packet[16] = input[pos + remainder];
+            packet[17] = input[pos + remainder + (sizeMod4 >>> 1)];
+            packet[18] = input[pos + remainder + sizeMod4 - 1];
+        }
+        update(readLong(packet, 0), readLong(packet, 8), readLong(packet, 16), readLong(packet, 24));
+    }
+
+    private void update(final long a0, final long a1, final long a2, final long a3) {
+        v1[0] += mul0[0] + a0;
+        v1[1] += mul0[1] + a1;
+        v1[2] += mul0[2] + a2;
+        v1[3] += mul0[3] + a3;
+        for (int i = 0; i < 4; i++) {
+            mul0[i] ^= (v1[i] & 0xffffffffL) * (v0[i] >>> 32);
+            v0[i] += mul1[i];
+            mul1[i] ^= (v0[i] & 0xffffffffL) * (v1[i] >>> 32);
+        }
+        zipperMergeAndAdd(v1[1], v1[0], v0, 1, 0);
+        zipperMergeAndAdd(v1[3], v1[2], v0, 3, 2);
+        zipperMergeAndAdd(v0[1], v0[0], v1, 1, 0);
+        zipperMergeAndAdd(v0[3], v0[2], v1, 3, 2);
+    }
+
+    private static void zipperMergeAndAdd(final long v1, final long v0, final long[] add, final int add1, final int add0) {
+        add[add0] += (((v0 & 0xff000000L) | (v1 & 0xff00000000L)) >>> 24)
+                | (((v0 & 0xff0000000000L) | (v1 & 0xff000000000000L)) >>> 16)
+                | (v0 & 0xff0000L)
+                | ((v0 & 0xff00L) << 32)
+                | ((v1 & 0xff00000000000000L) >>> 8)
+                | (v0 << 56);
+        add[add1] += (((v1 & 0xff000000L) | (v0 & 0xff00000000L)) >>> 24)
+                | (v1 & 0xff0000L)
+                | ((v1 & 0xff0000000000L) >>> 16)
+                | ((v1 & 0xff00L) << 24)
+                | ((v0 & 0xff000000000000L) >>> 8)
+                | ((v1 & 0xffL) << 48)
+                | (v0 & 0xff00000000000000L);
+    }
+
+    private static void rotate32By(final int count, final long[] lanes) {
+        for (int i = 0; i < 4; i++) {
+            final long half0 = lanes[i] & 0xffffffffL;
+            final long half1 = lanes[i] >>> 32;
+            lanes[i] = ((half0 << count) & 0xffffffffL) | (half0 >>> (32 - count));
+            lanes[i] |= (((half1 << count) & 0xffffffffL) | (half1 >>> (32 - count))) << 32;
+        }
+    }
+
+    // Swaps the 32 bit halves
+    private static long rotate(final long v) {
+        return (v >>> 32) | (v << 32);
+    }
+
+    private static long readLong(final byte[] b, final int offset) {
+        return (b[offset] & 0xffL)
+                | (b[offset + 1] & 0xffL) << 8
+                | (b[offset + 2] & 0xffL) << 16
+                | (b[offset + 3] & 0xffL) << 24
+                | (b[offset + 4] & 0xffL) << 32
+                | (b[offset + 5] & 0xffL) << 40
+                | (b[offset + 6] & 0xffL) << 48
+                | (b[offset + 7] & 0xffL) << 56;
+    }
+}
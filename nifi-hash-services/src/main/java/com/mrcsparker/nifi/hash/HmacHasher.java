@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * Standard HMAC (RFC 2104) of the UTF-8 value, keyed with the hash key.
+ * <p>
+ * Each thread keeps its own {@link Mac}, initialized once with the key, so the padded inner and
+ * outer key blocks are only computed once per thread. {@link Mac#doFinal()} resets it for the
+ * next value.
+ */
+final class HmacHasher extends KeyedHasher {
+
+    private final ThreadLocal<Mac> macs;
+
+    HmacHasher(final String algorithm, final String key) {
+        final SecretKeySpec secretKey = new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), algorithm);
+        this.macs = ThreadLocal.withInitial(() -> newMac(algorithm, secretKey));
+
+        // Initializing this thread's Mac is what checks the key against the algorithm
+        macs.get();
+    }
+
+    private static Mac newMac(final String algorithm, final SecretKeySpec secretKey) {
+        try {
+            final Mac mac = Mac.getInstance(algorithm);
+            mac.init(secretKey);
+            return mac;
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalArgumentException("Unsupported MAC algorithm " + algorithm, e);
+        }
+    }
+
+    @Override
+    void encode(final HashBuffers buffers, final CharSequence val) {
+        buffers.encodeUtf8(val);
+    }
+
+    @Override
+    void digestBatch(final CharSequence[] values, final int count, final byte[][] digests) {
+        final HashBuffers buffers = HashBuffers.get();
+        final Mac mac = macs.get();
+        for (int i = 0; i < count; i++) {
+            if (StringUtils.isBlank(values[i])) {
+                continue;
+            }
+            buffers.encodeUtf8(values[i]);
+            mac.update(buffers.value, 0, buffers.valueLength);
+            digests[i] = mac.doFinal();
+        }
+    }
+
+    @Override
+    byte[] digest(final HashBuffers buffers) {
+        final Mac mac = macs.get();
+        mac.update(buffers.value, 0, buffers.valueLength);
+        return mac.doFinal();
+    }
+}
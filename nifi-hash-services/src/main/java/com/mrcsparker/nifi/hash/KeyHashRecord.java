@@ -7,19 +7,15 @@ import org.apache.nifi.annotation.behavior.SideEffectFree;
 import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.ValidationContext;
 import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.components.Validator;
 import org.apache.nifi.expression.ExpressionLanguageScope;
-import org.apache.nifi.flowfile.FlowFile;
-import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.ProcessContext;
-import org.apache.nifi.processor.ProcessSession;
-import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.record.path.FieldValue;
-import org.apache.nifi.record.path.RecordPath;
 import org.apache.nifi.record.path.RecordPathResult;
 import org.apache.nifi.schema.access.SchemaNotFoundException;
 import org.apache.nifi.serialization.*;
@@ -27,9 +23,8 @@ import org.apache.nifi.serialization.record.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 @EventDriven
 @SideEffectFree
@@ -45,15 +40,6 @@ public class KeyHashRecord extends AbstractRecordProcessor {
 
     static final Logger LOG = LoggerFactory.getLogger(KeyHashRecord.class);
 
-    static final PropertyDescriptor HASH_KEY = new PropertyDescriptor.Builder()
-            .name("key")
-            .displayName("Hash Key")
-            .description("Hash Key")
-            .required(true)
-            .sensitive(true)
-            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
-            .build();
-
     static final PropertyDescriptor HASH_NAME = new PropertyDescriptor.Builder()
             .name("hash-name")
             .displayName("Hash Name")
@@ -74,6 +60,10 @@ public class KeyHashRecord extends AbstractRecordProcessor {
             .defaultValue("plaintext")
             .build();
 
+    // The hash/plaintext schema of every record this processor writes, built once per schedule
+    private volatile RecordSchema hashSchema;
+    private volatile String[] hashFieldNames;
+
     @Override
     protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         final List<PropertyDescriptor> properties = new ArrayList<>();
@@ -83,6 +73,18 @@ public class KeyHashRecord extends AbstractRecordProcessor {
         properties.add(HASH_NAME);
         properties.add(PLAINTEXT_NAME);
         properties.add(HashUtils.HASH_ALGORITHM);
+        properties.add(HashUtils.OUTPUT_ENCODING);
+        properties.add(HashUtils.DIGEST_LENGTH);
+        properties.add(FLOWFILE_BATCH_SIZE);
+        properties.add(EXECUTION_MODE);
+        properties.add(WORKER_POOL);
+        properties.add(HASHING_THREADS);
+        properties.add(RECORD_BATCH_SIZE);
+        properties.add(HASH_CACHE);
+        properties.add(CACHE_MAX_ENTRIES);
+        properties.add(CACHE_MAX_SIZE);
+        properties.add(CACHE_TTL);
+        properties.add(CACHE_DIRECTORY);
 
         return properties;
     }
@@ -101,115 +103,99 @@ public class KeyHashRecord extends AbstractRecordProcessor {
 
     @Override
     protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+        final List<ValidationResult> results = new ArrayList<>(super.customValidate(validationContext));
         final boolean containsDynamic = validationContext.getProperties().keySet().stream()
                 .anyMatch(PropertyDescriptor::isDynamic);
 
-        if (containsDynamic) {
-            return Collections.emptyList();
+        if (!containsDynamic) {
+            results.add(new ValidationResult.Builder()
+                    .subject("User-defined Properties")
+                    .valid(false)
+                    .explanation("At least one RecordPath must be specified")
+                    .build());
         }
-
-        return Collections.singleton(new ValidationResult.Builder()
-                .subject("User-defined Properties")
-                .valid(false)
-                .explanation("At least one RecordPath must be specified")
-                .build());
+        return results;
     }
 
-    @Override
-    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        FlowFile flowFile = session.get();
-        if (flowFile == null) {
-            return;
-        }
+    @OnScheduled
+    public void createHashSchema(final ProcessContext context) {
+        final String hashName = context.getProperty(HASH_NAME).getValue();
+        final String plaintextName = context.getProperty(PLAINTEXT_NAME).getValue();
 
-        final RecordReaderFactory readerFactory = context.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
-        final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
-
-        final Map<String, String> attributes = new HashMap<>();
-        final AtomicInteger recordCount = new AtomicInteger();
-
-        final FlowFile original = flowFile;
-        final Map<String, String> originalAttributes = flowFile.getAttributes();
-        try {
-            flowFile = session.write(flowFile, (in, out) -> {
-
-                try (final RecordReader reader = readerFactory.createRecordReader(originalAttributes, in, original.getSize(), getLogger())) {
-
-                    final RecordSchema writeSchema = writerFactory.getSchema(originalAttributes, reader.getSchema());
-                    try (final RecordSetWriter writer = writerFactory.createWriter(getLogger(), writeSchema, out, originalAttributes)) {
-                        writer.beginRecordSet();
-
-                        Record record;
-                        while ((record = reader.nextRecord()) != null) {
-                            final List<Record> processed = processRecords(record, writeSchema, original, context);
-                            for (Record r : processed) {
-                                writer.write(r);
-                            }
-                        }
-
-                        final WriteResult writeResult = writer.finishRecordSet();
-                        attributes.put("record.count", String.valueOf(writeResult.getRecordCount()));
-                        attributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
-                        attributes.putAll(writeResult.getAttributes());
-                        recordCount.set(writeResult.getRecordCount());
-                    }
-                } catch (final SchemaNotFoundException e) {
-                    throw new ProcessException(e.getLocalizedMessage(), e);
-                } catch (final MalformedRecordException e) {
-                    throw new ProcessException("Could not parse incoming data", e);
-                }
-            });
-        } catch (final Exception e) {
-            getLogger().error("Failed to process {}; will route to failure", new Object[] {flowFile, e});
-            session.transfer(flowFile, REL_FAILURE);
-            return;
-        }
+        final OutputEncoding encoding = OutputEncoding.fromValue(context.getProperty(HashUtils.OUTPUT_ENCODING).getValue());
 
-        flowFile = session.putAllAttributes(flowFile, attributes);
-        session.transfer(flowFile, REL_SUCCESS);
+        final List<RecordField> fields = new ArrayList<>();
+        fields.add(new RecordField(hashName, encoding.getDataType()));
+        fields.add(new RecordField(plaintextName, RecordFieldType.STRING.getDataType()));
 
-        final int count = recordCount.get();
-        session.adjustCounter("Records Processed", count, false);
-        getLogger().info("Successfully converted {} records for {}", new Object[] {count, flowFile});
+        hashSchema = new SimpleRecordSchema(fields);
+        hashFieldNames = new String[] {hashName, plaintextName};
     }
 
-    private List<Record> processRecords(Record record, RecordSchema writeSchema, FlowFile flowFile, ProcessContext context) {
+    @Override
+    protected RecordSchema getWriteSchema(final RecordSetWriterFactory writerFactory, final Map<String, String> attributes, final RecordSchema readSchema,
+                                          final HashPlan plan) throws SchemaNotFoundException, IOException {
+        return writerFactory.getSchema(attributes, hashSchema);
+    }
 
-        final String hashName = context.getProperty(HASH_NAME).getValue();
-        final String plaintextName = context.getProperty(PLAINTEXT_NAME).getValue();
+    @Override
+    void processRecord(final Record record, final RecordSchema writeSchema, final HashPlan plan, final RecordSink sink) throws IOException {
+        final HashContext hashContext = plan.getHashContext();
+        forEachValue(record, plan, clearTextValue -> writeHashRecord(sink, hashContext.hash(clearTextValue), clearTextValue));
+    }
 
-        String hashKey = context.getProperty(HASH_KEY).getValue();
-        String hashAlgorithm = context.getProperty(HashUtils.HASH_ALGORITHM).getValue();
-        if (hashAlgorithm.isEmpty()) {
-            hashAlgorithm = HashUtils.HASH_SHA256.getValue();
+    /**
+     * Collects the values of the whole batch first, so they are hashed in one go.
+     */
+    @Override
+    void processRecords(final List<Record> records, final RecordSchema writeSchema, final HashPlan plan, final RecordSink sink) throws IOException {
+        final List<String> values = new ArrayList<>(records.size() * plan.getMappings().size());
+        for (final Record record : records) {
+            forEachValue(record, plan, values::add);
         }
 
-        List<Record> records = new ArrayList<>();
-
-        for (final String recordPathText : recordPaths) {
-
-            final String replacementValue = context.getProperty(recordPathText).evaluateAttributeExpressions(flowFile).getValue();
-            final RecordPath replacementRecordPath = recordPathCache.getCompiled(replacementValue);
-
-            final RecordPathResult replacementResult = replacementRecordPath.evaluate(record);
-            final List<FieldValue> selectedFields = replacementResult.getSelectedFields().collect(Collectors.toList());
+        final String[] clearTextValues = values.toArray(new String[0]);
+        final Object[] hashes = new Object[clearTextValues.length];
+        plan.getHashContext().hashBatch(clearTextValues, clearTextValues.length, hashes);
+        for (int i = 0; i < clearTextValues.length; i++) {
+            writeHashRecord(sink, hashes[i], clearTextValues[i]);
+        }
+    }
 
-            for (FieldValue selectedField : selectedFields) {
-                final List<RecordField> fields = new ArrayList<>();
-                fields.add(new RecordField(hashName, RecordFieldType.STRING.getDataType()));
-                fields.add(new RecordField(plaintextName, RecordFieldType.STRING.getDataType()));
+    /**
+     * Receives the values of a record that are to be hashed.
+     */
+    private interface ValueConsumer {
+        void accept(String clearTextValue) throws IOException;
+    }
 
-                final RecordSchema schema = new SimpleRecordSchema(fields);
-                final Record newRecord = new MapRecord(schema, new HashMap<>());
+    private void forEachValue(final Record record, final HashPlan plan, final ValueConsumer consumer) throws IOException {
+        final HashPlan.SchemaPlan schemaPlan = plan.getSchemaPlan(record.getSchema());
 
-                if (selectedField.getValue() != null && !StringUtils.isEmpty(selectedField.getValue().toString())) {
-                    newRecord.setValue(hashName, HashUtils.getHash(hashAlgorithm, hashKey, selectedField.getValue().toString()));
-                    newRecord.setValue(plaintextName, selectedField.getValue().toString());
+        final List<HashPlan.PathMapping> mappings = plan.getMappings();
+        for (int i = 0; i < mappings.size(); i++) {
+            final RecordField replacementField = schemaPlan.getReplacementField(i);
+            if (replacementField != null) {
+                acceptValue(consumer, record.getValue(replacementField));
+                continue;
+            }
 
-                    records.add(newRecord);
-                }
+            final RecordPathResult replacementResult = mappings.get(i).getReplacement().evaluate(record);
+            final Iterator<FieldValue> selectedFields = replacementResult.getSelectedFields().iterator();
+            while (selectedFields.hasNext()) {
+                acceptValue(consumer, selectedFields.next().getValue());
             }
         }
-        return records;
+    }
+
+    private static void acceptValue(final ValueConsumer consumer, final Object value) throws IOException {
+        if (value != null && !StringUtils.isEmpty(value.toString())) {
+            consumer.accept(value.toString());
+        }
+    }
+
+    private void writeHashRecord(final RecordSink sink, final Object hash, final String clearTextValue) throws IOException {
+        final Map<String, Object> values = new RecordValues(hashFieldNames, hash, clearTextValue);
+        sink.accept(new MapRecord(hashSchema, values));
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A SHA-2 digest that has already absorbed the hash key. Each value is hashed by cloning the
+ * keyed prefix state, so the key is only run through the compression function once.
+ * <p>
+ * Produces the same output as {@link HashUtils#sha256(String, String)} and friends.
+ */
+final class KeyedDigest extends KeyedHasher {
+
+    private final MessageDigest prefix;
+    private final byte[] keyBytes;
+    // True when the key is shorter than one block, so feeding it again costs no compression
+    private final boolean shortKey;
+
+    KeyedDigest(final String algorithm, final String key) {
+        try {
+            this.prefix = MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm " + algorithm, e);
+        }
+        this.keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        this.shortKey = keyBytes.length < ("SHA-256".equals(algorithm) ? 64 : 128);
+        this.prefix.update(keyBytes);
+
+        // Not every provider's digests can be cloned
+        newDigest();
+    }
+
+    @Override
+    byte[] digest(final HashBuffers buffers) {
+        final MessageDigest digest = newDigest();
+        digest.update(buffers.value, 0, buffers.valueLength);
+        digest.update(buffers.base64, 0, buffers.base64Length);
+        return digest.digest();
+    }
+
+    /**
+     * Hashes a whole batch with one digest instead of one clone per value. Finishing a digest resets
+     * it to the empty state, so a short key is simply fed again before every value.
+     */
+    @Override
+    void digestBatch(final CharSequence[] values, final int count, final byte[][] digests) {
+        if (!shortKey) {
+            super.digestBatch(values, count, digests);
+            return;
+        }
+
+        final HashBuffers buffers = HashBuffers.get();
+        final MessageDigest digest = newDigest();
+        digest.reset();
+        for (int i = 0; i < count; i++) {
+            if (StringUtils.isBlank(values[i])) {
+                continue;
+            }
+            buffers.encode(values[i]);
+            digest.update(keyBytes);
+            digest.update(buffers.value, 0, buffers.valueLength);
+            digest.update(buffers.base64, 0, buffers.base64Length);
+            digests[i] = digest.digest();
+        }
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            // The prefix is never updated after construction, so concurrent clones are safe
+            return (MessageDigest) prefix.clone();
+        } catch (final CloneNotSupportedException e) {
+            throw new IllegalStateException("Digest " + prefix.getAlgorithm() + " cannot be cloned", e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A hash algorithm bound to a hash key. Instances are resolved once, when a processor is scheduled
+ * or a service is enabled, and are safe to share between threads. Constructors derive the key state
+ * and reject an unusable key or algorithm right away, so a bad configuration fails when it is
+ * applied rather than on the first record.
+ * <p>
+ * The plain digests hash the key, the UTF-8 value and its Base64 form. Algorithms that take the key
+ * themselves, such as HMAC and BLAKE3, override {@link #encode(HashBuffers, CharSequence)} to hash
+ * the UTF-8 value alone.
+ */
+abstract class KeyedHasher {
+
+    /**
+     * @return the hex encoded hash of <code>val</code>, or <code>val</code> itself if it is blank
+     */
+    final String hash(final String val) {
+        if (StringUtils.isBlank(val)) {
+            return val;
+        }
+
+        return HexEncoder.encode(digest(val));
+    }
+
+    /**
+     * Hashes the first <code>count</code> values into the same positions of <code>out</code>, which
+     * may be <code>values</code> itself. Blank values are copied as they are, like {@link #hash(String)}
+     * does.
+     */
+    final void hashBatch(final CharSequence[] values, final int count, final String[] out) {
+        final byte[][] digests = new byte[count][];
+        digestBatch(values, count, digests);
+        for (int i = 0; i < count; i++) {
+            if (digests[i] != null) {
+                out[i] = HexEncoder.encode(digests[i]);
+            } else {
+                out[i] = values[i] == null ? null : values[i].toString();
+            }
+        }
+    }
+
+    /**
+     * @return the raw digest of <code>val</code>, which must not be blank
+     */
+    final byte[] digest(final CharSequence val) {
+        final HashBuffers buffers = HashBuffers.get();
+        encode(buffers, val);
+        return digest(buffers);
+    }
+
+    /**
+     * @return the algorithm's own 64 bit result for <code>val</code>, which must not be blank, or
+     * {@link #toLong(byte[])} of its digest for algorithms that do not compute one
+     */
+    final long digestLong(final CharSequence val) {
+        final HashBuffers buffers = HashBuffers.get();
+        encode(buffers, val);
+        return digestLong(buffers);
+    }
+
+    /**
+     * Computes the raw digests of the first <code>count</code> values into the same positions of
+     * <code>digests</code>, leaving null for blank values. Hashers that can share setup between the
+     * values of a batch override this.
+     */
+    void digestBatch(final CharSequence[] values, final int count, final byte[][] digests) {
+        final HashBuffers buffers = HashBuffers.get();
+        for (int i = 0; i < count; i++) {
+            if (StringUtils.isBlank(values[i])) {
+                continue;
+            }
+            encode(buffers, values[i]);
+            digests[i] = digest(buffers);
+        }
+    }
+
+    /**
+     * Fills <code>buffers</code> with what {@link #digest(HashBuffers)} reads. By default that is the
+     * UTF-8 value and its Base64 form.
+     */
+    void encode(final HashBuffers buffers, final CharSequence val) {
+        buffers.encode(val);
+    }
+
+    /**
+     * Computes the digest of the value and Base64 value currently held in <code>buffers</code>.
+     * <p>
+     * Functions that compute their hash as integers, such as the checksums, FarmHash, XXH3, SipHash and
+     * HighwayHash, lay it out little-endian, low word first, as Guava's <code>HashCode</code> does. Reading
+     * the first eight bytes little-endian then gives the algorithm's own 64 bit result, or the low half of
+     * a 128 bit one, whichever library computed it.
+     */
+    abstract byte[] digest(HashBuffers buffers);
+
+    /**
+     * Computes the 64 bit result for the value currently held in <code>buffers</code>. Hashers whose
+     * function computes a long override this to return it without going through the digest bytes.
+     */
+    long digestLong(final HashBuffers buffers) {
+        return toLong(digest(buffers));
+    }
+
+    /**
+     * @return the first eight bytes of <code>digest</code> read little-endian, zero-extended when the
+     * digest is shorter; by the byte order of {@link #digest(HashBuffers)} that is the same long that
+     * {@link #digestLong(HashBuffers)} returns
+     */
+    static long toLong(final byte[] digest) {
+        long value = 0;
+        for (int i = 0; i < Math.min(digest.length, Long.BYTES); i++) {
+            value |= (digest[i] & 0xffL) << (i * 8);
+        }
+        return value;
+    }
+}
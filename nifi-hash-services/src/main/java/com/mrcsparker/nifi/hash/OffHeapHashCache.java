@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A {@link HashCache} that keeps its entries outside the Java heap, so a cache of tens of millions
+ * of values adds nothing to garbage collection.
+ * <p>
+ * Entries live in fixed-width slots of open-addressed tables. A slot holds a 64-bit fingerprint of
+ * the algorithm and plaintext, never the plaintext itself, followed by the digest. Fingerprints are
+ * keyed SipHash values, so tables that end up on disk do not reveal which values were hashed. The tables are
+ * split into segments, each guarded by its own lock. A value can live in any of the
+ * {@link #PROBE_LIMIT} slots that follow its home slot. When they are all taken, a clock sweep over
+ * those slots picks a victim that has not been read since the last sweep.
+ * <p>
+ * The home slot and the fingerprint come from independently keyed hashes. Two values are only
+ * confused when both of those collide.
+ */
+final class OffHeapHashCache implements HashCache {
+
+    // Layout of a slot: fingerprint, digest length, referenced flag, digest
+    static final int SLOT_WIDTH = 80;
+    static final int MAX_DIGEST_LENGTH = 64;
+    private static final int FINGERPRINT_OFFSET = 0;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int REFERENCED_OFFSET = 9;
+    private static final int DIGEST_OFFSET = 10;
+
+    static final int PROBE_LIMIT = 16;
+    // Keeps every segment under the 2GB limit of a single ByteBuffer
+    private static final long MAX_SLOTS_PER_SEGMENT = 1L << 24;
+
+    private final HashFunction fingerprint;
+    private final HashFunction placement;
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final HashCacheStats stats = new HashCacheStats();
+
+    /**
+     * @param maxBytes       the most off-heap memory the cache may use
+     * @param fingerprintKey the key of the fingerprints, see {@link #fingerprintKey(String, String)}
+     */
+    OffHeapHashCache(final long maxBytes, final byte[] fingerprintKey) {
+        this(allocate(maxBytes), fingerprintKey);
+    }
+
+    /**
+     * Builds a cache over existing tables, which must all have the same power-of-two number of slots.
+     */
+    OffHeapHashCache(final ByteBuffer[] tables, final byte[] fingerprintKey) {
+        final ByteBuffer key = ByteBuffer.wrap(fingerprintKey);
+        this.fingerprint = Hashing.sipHash24(key.getLong(0), key.getLong(8));
+        this.placement = Hashing.sipHash24(key.getLong(16), key.getLong(24));
+        this.segments = new Segment[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            segments[i] = new Segment(tables[i]);
+        }
+        this.segmentMask = tables.length - 1;
+    }
+
+    /**
+     * Derives the 32 byte fingerprint key of a cache from the settings its digests depend on, so the
+     * same settings always give the same fingerprints.
+     */
+    static byte[] fingerprintKey(final String hashKey, final String algorithmProperty) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update("hash-cache-fingerprint".getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(hashKey.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(algorithmProperty).getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * @return the number of segments and the slots in each for a cache of at most <code>maxBytes</code>
+     */
+    static long[] layout(final long maxBytes) {
+        final long slots = Long.highestOneBit(Math.max(maxBytes / SLOT_WIDTH, PROBE_LIMIT));
+        final long forConcurrency = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 4L;
+        final long segments = Math.min(slots / PROBE_LIMIT, Math.max(forConcurrency, slots / MAX_SLOTS_PER_SEGMENT));
+        return new long[] {segments, slots / segments};
+    }
+
+    private static ByteBuffer[] allocate(final long maxBytes) {
+        final long[] layout = layout(maxBytes);
+        final ByteBuffer[] tables = new ByteBuffer[(int) layout[0]];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = ByteBuffer.allocateDirect((int) (layout[1] * SLOT_WIDTH));
+        }
+        return tables;
+    }
+
+    @Override
+    public byte[] get(final HashAlgorithm algorithm, final String plaintext) {
+        final long[] hash = fingerprint(algorithm, plaintext);
+        final byte[] digest = segment(hash).get(hash[0], slot(hash));
+        if (digest == null) {
+            stats.recordMiss();
+        } else {
+            stats.recordHit();
+        }
+        return digest;
+    }
+
+    @Override
+    public void put(final HashAlgorithm algorithm, final String plaintext, final byte[] digest) {
+        if (digest.length > MAX_DIGEST_LENGTH) {
+            return;
+        }
+        final long[] hash = fingerprint(algorithm, plaintext);
+        if (segment(hash).put(hash[0], slot(hash), digest)) {
+            stats.recordEviction();
+        }
+    }
+
+    @Override
+    public HashCacheStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        // Direct buffers are freed once they are unreachable
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = null;
+        }
+    }
+
+    private Segment segment(final long[] hash) {
+        return segments[(int) (hash[1] >>> 32) & segmentMask];
+    }
+
+    private static int slot(final long[] hash) {
+        return (int) hash[1];
+    }
+
+    /**
+     * @return the fingerprint, never 0 since 0 marks an empty slot, followed by the bits that place the value
+     */
+    private long[] fingerprint(final HashAlgorithm algorithm, final String plaintext) {
+        final long fingerprint = hash(this.fingerprint, algorithm, plaintext);
+        return new long[] {fingerprint == 0 ? 1 : fingerprint, hash(placement, algorithm, plaintext)};
+    }
+
+    private static long hash(final HashFunction function, final HashAlgorithm algorithm, final String plaintext) {
+        return function.newHasher()
+                .putString(algorithm.getAllowableValue().getValue(), StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(plaintext, StandardCharsets.UTF_8)
+                .hash()
+                .asLong();
+    }
+
+    private static final class Segment {
+        private final ByteBuffer table;
+        private final int slotMask;
+        private int clockHand;
+
+        Segment(final ByteBuffer table) {
+            this.table = table;
+            this.slotMask = table.capacity() / SLOT_WIDTH - 1;
+        }
+
+        synchronized byte[] get(final long fingerprint, final int home) {
+            for (int i = 0; i < PROBE_LIMIT; i++) {
+                final int offset = offset(home + i);
+                final long stored = table.getLong(offset + FINGERPRINT_OFFSET);
+                if (stored == 0) {
+                    return null;
+                }
+                if (stored == fingerprint) {
+                    table.put(offset + REFERENCED_OFFSET, (byte) 1);
+                    final byte[] digest = new byte[table.get(offset + LENGTH_OFFSET)];
+                    for (int b = 0; b < digest.length; b++) {
+                        digest[b] = table.get(offset + DIGEST_OFFSET + b);
+                    }
+                    return digest;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return true if another value was evicted to make room
+         */
+        synchronized boolean put(final long fingerprint, final int home, final byte[] digest) {
+            for (int i = 0; i < PROBE_LIMIT; i++) {
+                final int offset = offset(home + i);
+                final long stored = table.getLong(offset + FINGERPRINT_OFFSET);
+                if (stored == 0 || stored == fingerprint) {
+                    write(offset, fingerprint, digest);
+                    return false;
+                }
+            }
+
+            // Every slot is taken: sweep them from where the last sweep stopped, giving each slot
+            // that was read since then a second chance. Ends within one lap, as the sweep clears flags.
+            for (int i = 0; ; i++) {
+                final int offset = offset(home + (clockHand + i) % PROBE_LIMIT);
+                if (table.get(offset + REFERENCED_OFFSET) == 0) {
+                    clockHand = (clockHand + i + 1) % PROBE_LIMIT;
+                    write(offset, fingerprint, digest);
+                    return true;
+                }
+                table.put(offset + REFERENCED_OFFSET, (byte) 0);
+            }
+        }
+
+        private void write(final int offset, final long fingerprint, final byte[] digest) {
+            table.putLong(offset + FINGERPRINT_OFFSET, fingerprint);
+            table.put(offset + LENGTH_OFFSET, (byte) digest.length);
+            table.put(offset + REFERENCED_OFFSET, (byte) 0);
+            for (int b = 0; b < digest.length; b++) {
+                table.put(offset + DIGEST_OFFSET + b, digest[b]);
+            }
+        }
+
+        private int offset(final int slot) {
+            return (slot & slotMask) * SLOT_WIDTH;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link HashCache} backed by a Guava cache, bounded either by entry count or by an estimate of
+ * the bytes the entries hold, and evicting the least recently used entries first.
+ */
+final class OnHeapHashCache implements HashCache {
+
+    // Rough per-entry cost of the cache entry, the key object and the two array headers
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Cache<Key, byte[]> cache;
+    private final HashCacheStats stats = new HashCacheStats();
+
+    /**
+     * @param maxEntries the most entries to hold, used when <code>maxBytes</code> is not positive
+     * @param maxBytes   the most bytes the entries may hold, or 0 to bound by entry count
+     * @param ttlMillis  how long an entry lives after it is written, or 0 to keep entries until evicted
+     */
+    OnHeapHashCache(final long maxEntries, final long maxBytes, final long ttlMillis) {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .removalListener(notification -> {
+                    if (notification.wasEvicted()) {
+                        stats.recordEviction();
+                    }
+                });
+
+        if (maxBytes > 0) {
+            builder.maximumWeight(maxBytes)
+                    .weigher((Key key, byte[] digest) -> ENTRY_OVERHEAD + 2 * key.plaintext.length() + digest.length);
+        } else {
+            builder.maximumSize(maxEntries);
+        }
+        if (ttlMillis > 0) {
+            builder.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS);
+        }
+
+        this.cache = builder.build();
+    }
+
+    @Override
+    public byte[] get(final HashAlgorithm algorithm, final String plaintext) {
+        final byte[] digest = cache.getIfPresent(new Key(algorithm, plaintext));
+        if (digest == null) {
+            stats.recordMiss();
+        } else {
+            stats.recordHit();
+        }
+        return digest;
+    }
+
+    @Override
+    public void put(final HashAlgorithm algorithm, final String plaintext, final byte[] digest) {
+        cache.put(new Key(algorithm, plaintext), digest);
+    }
+
+    @Override
+    public HashCacheStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        cache.invalidateAll();
+    }
+
+    private static final class Key {
+        private final HashAlgorithm algorithm;
+        private final String plaintext;
+
+        Key(final HashAlgorithm algorithm, final String plaintext) {
+            this.algorithm = algorithm;
+            this.plaintext = plaintext;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return algorithm == other.algorithm && plaintext.equals(other.plaintext);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * algorithm.hashCode() + plaintext.hashCode();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.RecordFieldType;
+
+import java.util.Base64;
+
+/**
+ * The values of {@link HashUtils#OUTPUT_ENCODING}: how a digest is turned into the value of a field,
+ * and the type that field has in the written schema.
+ */
+enum OutputEncoding {
+
+    HEX(HashUtils.ENCODING_HEX, RecordFieldType.STRING.getDataType()) {
+        @Override
+        Object encode(final byte[] digest) {
+            return HexEncoder.encode(digest);
+        }
+    },
+    BASE64URL(HashUtils.ENCODING_BASE64URL, RecordFieldType.STRING.getDataType()) {
+        @Override
+        Object encode(final byte[] digest) {
+            return BASE64URL_ENCODER.encodeToString(digest);
+        }
+    },
+    BASE32(HashUtils.ENCODING_BASE32, RecordFieldType.STRING.getDataType()) {
+        @Override
+        Object encode(final byte[] digest) {
+            return Base32Encoder.encode(digest);
+        }
+    },
+    CROCKFORD_BASE32(HashUtils.ENCODING_CROCKFORD_BASE32, RecordFieldType.STRING.getDataType()) {
+        @Override
+        Object encode(final byte[] digest) {
+            return Base32Encoder.encodeCrockford(digest);
+        }
+    },
+    BINARY(HashUtils.ENCODING_BINARY, RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.BYTE.getDataType())) {
+        @Override
+        Object encode(final byte[] digest) {
+            // Digests may be shared with the Hash Cache, so records get their own copy
+            return digest.clone();
+        }
+    },
+    LONG(HashUtils.ENCODING_LONG, RecordFieldType.LONG.getDataType()) {
+        @Override
+        Object encode(final byte[] digest) {
+            return KeyedHasher.toLong(digest);
+        }
+
+        @Override
+        Object encodeBlank(final String val) {
+            // A long field cannot hold an empty string
+            return null;
+        }
+    };
+
+    private static final Base64.Encoder BASE64URL_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final AllowableValue allowableValue;
+    private final DataType dataType;
+
+    OutputEncoding(final AllowableValue allowableValue, final DataType dataType) {
+        this.allowableValue = allowableValue;
+        this.dataType = dataType;
+    }
+
+    AllowableValue getAllowableValue() {
+        return allowableValue;
+    }
+
+    /**
+     * @return the type of the fields that hold encoded digests
+     */
+    DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * @return the field value for <code>digest</code>
+     */
+    abstract Object encode(byte[] digest);
+
+    /**
+     * @return the field value for a blank, non-null value, which is the value itself unless the
+     * field type cannot hold it
+     */
+    Object encodeBlank(final String val) {
+        return val;
+    }
+
+    /**
+     * Resolves a {@link HashUtils#OUTPUT_ENCODING} value. Blank or unknown values fall back to hex.
+     */
+    static OutputEncoding fromValue(final String value) {
+        if (value != null) {
+            for (final OutputEncoding encoding : values()) {
+                if (encoding.allowableValue.getValue().equals(value)) {
+                    return encoding;
+                }
+            }
+        }
+        return HEX;
+    }
+}
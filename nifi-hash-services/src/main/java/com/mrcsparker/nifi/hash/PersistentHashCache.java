@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * An {@link OffHeapHashCache} whose tables are memory-mapped from a file, so the digests survive a
+ * restart. Opening the file maps it without reading it; pages are loaded as values are looked up.
+ * <p>
+ * The file starts with a header recording the table layout and a fingerprint of the settings the
+ * digests depend on. The file is emptied when any of them changed, such as after the hash key is
+ * rotated, and when it was not closed cleanly, since entries may then have been half written.
+ * <p>
+ * Closing the cache unmaps the file, so it must not be used by any other thread by then.
+ */
+final class PersistentHashCache implements HashCache {
+
+    // A page, so the tables that follow stay page aligned
+    static final int HEADER_SIZE = 4096;
+    private static final long MAGIC = 0x4e69466948617368L;
+    // 2 since XXH3 and HighwayHash digests are little-endian
+    private static final int VERSION = 2;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int SLOT_WIDTH_OFFSET = 12;
+    private static final int SEGMENTS_OFFSET = 16;
+    private static final int SLOTS_PER_SEGMENT_OFFSET = 20;
+    private static final int CLEAN_OFFSET = 24;
+    private static final int FINGERPRINT_OFFSET = 32;
+    private static final int FINGERPRINT_LENGTH = 32;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] tables;
+    private final OffHeapHashCache cache;
+    private final boolean reused;
+
+    private PersistentHashCache(final FileChannel channel, final MappedByteBuffer header, final MappedByteBuffer[] tables,
+                                final byte[] fingerprintKey, final boolean reused) {
+        this.channel = channel;
+        this.header = header;
+        this.tables = tables;
+        this.cache = new OffHeapHashCache(tables, fingerprintKey);
+        this.reused = reused;
+    }
+
+    /**
+     * Maps the cache file at <code>file</code>, creating it or emptying it as needed.
+     *
+     * @param maxBytes       the most memory the tables may use, as for {@link OffHeapHashCache#OffHeapHashCache(long, byte[])}
+     * @param fingerprintKey see {@link OffHeapHashCache#fingerprintKey(String, String)}
+     */
+    static PersistentHashCache open(final Path file, final long maxBytes, final byte[] fingerprintKey) throws IOException {
+        final long[] layout = OffHeapHashCache.layout(maxBytes);
+        final int segments = (int) layout[0];
+        final int slotsPerSegment = (int) layout[1];
+        final long tableBytes = (long) slotsPerSegment * OffHeapHashCache.SLOT_WIDTH;
+        // Only a digest of the fingerprint key is stored, as the key itself would let anyone compute fingerprints
+        final byte[] fingerprint = sha256(fingerprintKey);
+
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = null;
+        final MappedByteBuffer[] tables = new MappedByteBuffer[segments];
+        try {
+            final ByteBuffer existing = ByteBuffer.allocate(HEADER_SIZE);
+            while (existing.hasRemaining() && channel.read(existing, existing.position()) >= 0) {
+                // A read may return fewer bytes than asked for before the end of the file
+            }
+            final boolean reused = !existing.hasRemaining()
+                    && channel.size() == HEADER_SIZE + segments * tableBytes
+                    && existing.getLong(MAGIC_OFFSET) == MAGIC
+                    && existing.getInt(VERSION_OFFSET) == VERSION
+                    && existing.getInt(SLOT_WIDTH_OFFSET) == OffHeapHashCache.SLOT_WIDTH
+                    && existing.getInt(SEGMENTS_OFFSET) == segments
+                    && existing.getInt(SLOTS_PER_SEGMENT_OFFSET) == slotsPerSegment
+                    && existing.get(CLEAN_OFFSET) == 1
+                    && Arrays.equals(fingerprint, Arrays.copyOfRange(existing.array(), FINGERPRINT_OFFSET, FINGERPRINT_OFFSET + FINGERPRINT_LENGTH));
+
+            if (!reused) {
+                // Mapping past the end grows the file with zeros, which are empty slots
+                channel.truncate(0);
+            }
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putLong(MAGIC_OFFSET, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(SLOT_WIDTH_OFFSET, OffHeapHashCache.SLOT_WIDTH);
+            header.putInt(SEGMENTS_OFFSET, segments);
+            header.putInt(SLOTS_PER_SEGMENT_OFFSET, slotsPerSegment);
+            header.put(CLEAN_OFFSET, (byte) 0);
+            for (int i = 0; i < FINGERPRINT_LENGTH; i++) {
+                header.put(FINGERPRINT_OFFSET + i, fingerprint[i]);
+            }
+            // Marked in use before any entry is written, so a crash leaves the file dirty
+            header.force();
+
+            for (int i = 0; i < segments; i++) {
+                tables[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + i * tableBytes, tableBytes);
+            }
+
+            return new PersistentHashCache(channel, header, tables, fingerprintKey, reused);
+        } catch (final IOException | RuntimeException e) {
+            unmap(header, tables);
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the entries of an earlier run were kept
+     */
+    boolean isReused() {
+        return reused;
+    }
+
+    @Override
+    public byte[] get(final HashAlgorithm algorithm, final String plaintext) {
+        return cache.get(algorithm, plaintext);
+    }
+
+    @Override
+    public void put(final HashAlgorithm algorithm, final String plaintext, final byte[] digest) {
+        cache.put(algorithm, plaintext, digest);
+    }
+
+    @Override
+    public HashCacheStats getStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Writes the tables to disk and marks the file clean, so the next {@link #open} keeps them.
+     */
+    @Override
+    public void close() {
+        try {
+            for (final MappedByteBuffer table : tables) {
+                table.force();
+            }
+            header.put(CLEAN_OFFSET, (byte) 1);
+            header.force();
+        } finally {
+            cache.close();
+            unmap(header, tables);
+            try {
+                channel.close();
+            } catch (final IOException ignored) {
+                // The tables were already forced, so there is nothing left to lose
+            }
+        }
+    }
+
+    /**
+     * Releases the mappings now rather than when the buffers are collected, as the file cannot be truncated or
+     * deleted on some platforms while it is mapped, and each mapping holds on to address space until then.
+     */
+    private static void unmap(final MappedByteBuffer header, final MappedByteBuffer[] tables) {
+        if (header != null) {
+            Unmapper.unmap(header);
+        }
+        for (final MappedByteBuffer table : tables) {
+            if (table != null) {
+                Unmapper.unmap(table);
+            }
+        }
+    }
+
+    private static byte[] sha256(final byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Frees a mapping through the JDK internals, as there is no public API for it before Java 14. When they
+     * cannot be reached, the mapping is left to be freed once the buffer is collected.
+     */
+    private static final class Unmapper {
+
+        // Java 9 and later
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        private Unmapper() {
+        }
+
+        static void unmap(final MappedByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    return;
+                }
+                // Java 8, where the buffer is a sun.nio.ch.DirectBuffer
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (final ReflectiveOperationException | RuntimeException ignored) {
+                // Freed once the buffer is collected instead
+            }
+        }
+    }
+}
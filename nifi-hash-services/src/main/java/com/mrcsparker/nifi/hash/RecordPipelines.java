@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.record.Record;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The ways a record processor can move records from a {@link RecordReader}, through its transform,
+ * to the writer of a single FlowFile. All of them write records in the order they were read.
+ */
+final class RecordPipelines {
+
+    // Marks the end of the batches on a pipeline queue; compared by identity
+    private static final List<Record> END_OF_BATCHES = Collections.unmodifiableList(new ArrayList<>());
+    // How long a pipeline stage waits on a queue before checking whether the pipeline was stopped
+    private static final long HAND_OVER_WAIT_MILLIS = 50;
+
+    private RecordPipelines() {
+    }
+
+    /**
+     * Transforms one record, handing the results to <code>sink</code>. Must be safe to call from
+     * several threads at once.
+     */
+    interface RecordTransform {
+        void apply(Record record, AbstractRecordProcessor.RecordSink sink) throws IOException;
+
+        /**
+         * Transforms a batch of records, handing the results to <code>sink</code> in order.
+         */
+        default void applyBatch(final List<Record> records, final AbstractRecordProcessor.RecordSink sink) throws IOException {
+            for (final Record record : records) {
+                apply(record, sink);
+            }
+        }
+    }
+
+    /**
+     * Reads, transforms and writes one record at a time on the calling thread.
+     */
+    static void sequential(final RecordReader reader, final RecordTransform transform, final AbstractRecordProcessor.RecordSink sink)
+            throws IOException, MalformedRecordException {
+        Record record;
+        while ((record = reader.nextRecord()) != null) {
+            transform.apply(record, sink);
+        }
+    }
+
+    /**
+     * Reads batches of records on the calling thread and transforms them on <code>executor</code>.
+     * Completed batches are written by the calling thread in the order they were read, and at most
+     * <code>maxBatchesInFlight</code> batches are held in memory at once.
+     * <p>
+     * Every batch has finished by the time this returns or throws, so the caller may release what the
+     * transform uses, such as the Hash Cache. Cancelling would not do: a cancelled task that is already
+     * running is not waited for, and on a ForkJoinPool it is not even interrupted.
+     */
+    static void parallel(final RecordReader reader, final RecordTransform transform, final AbstractRecordProcessor.RecordSink sink,
+                         final ExecutorService executor, final int batchSize, final int maxBatchesInFlight)
+            throws IOException, MalformedRecordException {
+        final Deque<Future<List<Record>>> inFlight = new ArrayDeque<>(maxBatchesInFlight);
+        // Set once the calling thread stops writing; batches that have not started yet are then skipped
+        final AtomicBoolean stopped = new AtomicBoolean();
+        try {
+            List<Record> batch = new ArrayList<>(batchSize);
+            Record record;
+            while ((record = reader.nextRecord()) != null) {
+                batch.add(record);
+                if (batch.size() < batchSize) {
+                    continue;
+                }
+
+                inFlight.add(submit(executor, transform, batch, stopped));
+                batch = new ArrayList<>(batchSize);
+
+                // Write whatever is already done, and block on the oldest batch once the window is full
+                while (!inFlight.isEmpty() && (inFlight.size() >= maxBatchesInFlight || inFlight.peek().isDone())) {
+                    write(inFlight.poll(), sink);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                inFlight.add(submit(executor, transform, batch, stopped));
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll(), sink);
+            }
+        } finally {
+            stopped.set(true);
+            for (final Future<List<Record>> future : inFlight) {
+                awaitQuietly(future);
+            }
+        }
+    }
+
+    /**
+     * Reads batches of records on one thread of <code>executor</code>, transforms them on another and
+     * writes them on the calling thread. The stages hand batches over through queues holding at most
+     * <code>queueCapacity</code> batches, so a slow stage holds back the ones before it.
+     * <p>
+     * <code>executor</code> must be able to start both stages right away, otherwise the calling thread
+     * waits for them. On a {@link ForkJoinPool} the stages wait on each other through
+     * {@link ForkJoinPool#managedBlock}, so the pool starts other workers meanwhile. Both stages have finished by the time this returns or throws, so the caller
+     * may close the reader and writer.
+     */
+    static void pipelined(final RecordReader reader, final RecordTransform transform, final AbstractRecordProcessor.RecordSink sink,
+                          final ExecutorService executor, final int batchSize, final int queueCapacity)
+            throws IOException, MalformedRecordException {
+        final BlockingQueue<List<Record>> read = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<List<Record>> transformed = new ArrayBlockingQueue<>(queueCapacity);
+        // Set once the calling thread stops taking batches; the stages then drop what they hold and end
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        final Future<Void> readStage = executor.submit(() -> {
+            try {
+                List<Record> batch = new ArrayList<>(batchSize);
+                Record record;
+                while (!stopped.get() && (record = reader.nextRecord()) != null) {
+                    batch.add(record);
+                    if (batch.size() == batchSize) {
+                        handOver(read, batch, stopped);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    handOver(read, batch, stopped);
+                }
+            } finally {
+                handOver(read, END_OF_BATCHES, stopped);
+            }
+            return null;
+        });
+
+        final Future<Void> transformStage = executor.submit(() -> {
+            try {
+                List<Record> batch;
+                while ((batch = takeOver(read, readStage, stopped)) != END_OF_BATCHES) {
+                    final List<Record> output = new ArrayList<>(batch.size());
+                    transform.applyBatch(batch, output::add);
+                    handOver(transformed, output, stopped);
+                }
+            } finally {
+                handOver(transformed, END_OF_BATCHES, stopped);
+            }
+            return null;
+        });
+
+        try {
+            List<Record> batch;
+            while ((batch = take(transformed, transformStage, stopped)) != END_OF_BATCHES) {
+                for (final Record record : batch) {
+                    sink.accept(record);
+                }
+            }
+
+            // A failed stage still ends its queue, so look for failures once the batches stop. The
+            // transform stage goes first: if it failed, the read stage may be waiting on a full queue.
+            await(transformStage);
+            await(readStage);
+        } finally {
+            stopped.set(true);
+            read.clear();
+            transformed.clear();
+            awaitQuietly(transformStage);
+            awaitQuietly(readStage);
+        }
+    }
+
+    /**
+     * Puts <code>batch</code> on <code>queue</code>, giving up once the pipeline is stopped, since
+     * nothing takes from the queue after that.
+     */
+    private static void handOver(final BlockingQueue<List<Record>> queue, final List<Record> batch, final AtomicBoolean stopped)
+            throws InterruptedException {
+        if (queue.offer(batch)) {
+            return;
+        }
+        block(() -> {
+            while (!stopped.get()) {
+                if (queue.offer(batch, HAND_OVER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return the next batch on <code>queue</code>, or {@link #END_OF_BATCHES} once the pipeline is
+     * stopped or <code>producer</code> has ended without saying so, such as when it was interrupted
+     */
+    private static List<Record> takeOver(final BlockingQueue<List<Record>> queue, final Future<?> producer, final AtomicBoolean stopped)
+            throws InterruptedException {
+        final List<Record> next = stopped.get() ? END_OF_BATCHES : queue.poll();
+        if (next != null) {
+            return next;
+        }
+        return block(() -> {
+            while (!stopped.get()) {
+                final List<Record> batch = queue.poll(HAND_OVER_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+                if (producer.isDone()) {
+                    final List<Record> last = queue.poll();
+                    return last == null ? END_OF_BATCHES : last;
+                }
+            }
+            return END_OF_BATCHES;
+        });
+    }
+
+    /**
+     * Runs a wait through {@link ForkJoinPool#managedBlock}, so a pool whose worker is waiting
+     * starts another one to keep its parallelism. Other threads simply run the wait.
+     */
+    private static <T> T block(final Wait<T> wait) throws InterruptedException {
+        final ManagedWait<T> blocker = new ManagedWait<>(wait);
+        ForkJoinPool.managedBlock(blocker);
+        return blocker.result;
+    }
+
+    private static List<Record> take(final BlockingQueue<List<Record>> queue, final Future<?> producer, final AtomicBoolean stopped) {
+        try {
+            return takeOver(queue, producer, stopped);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException("Interrupted while waiting for records to be hashed", e);
+        }
+    }
+
+    /**
+     * Waits for a stage or batch to end, even if this thread is interrupted. Its failure, if any, has already
+     * been reported or is superseded by the one being thrown.
+     */
+    private static void awaitQuietly(final Future<?> future) {
+        try {
+            Uninterruptibles.getUninterruptibly(future);
+        } catch (final ExecutionException | CancellationException e) {
+            // Ignored, see above
+        }
+    }
+
+    private static Future<List<Record>> submit(final ExecutorService executor, final RecordTransform transform, final List<Record> batch,
+                                               final AtomicBoolean stopped) {
+        return executor.submit(() -> {
+            if (stopped.get()) {
+                return Collections.<Record>emptyList();
+            }
+            final List<Record> transformed = new ArrayList<>(batch.size());
+            transform.applyBatch(batch, transformed::add);
+            return transformed;
+        });
+    }
+
+    private static void write(final Future<List<Record>> future, final AbstractRecordProcessor.RecordSink sink)
+            throws IOException, MalformedRecordException {
+        for (final Record record : await(future)) {
+            sink.accept(record);
+        }
+    }
+
+    private static <T> T await(final Future<T> future) throws IOException, MalformedRecordException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessException("Interrupted while waiting for records to be hashed", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof MalformedRecordException) {
+                throw (MalformedRecordException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ProcessException("Failed to hash records", cause);
+        }
+    }
+
+    private interface Wait<T> {
+        T call() throws InterruptedException;
+    }
+
+    private static final class ManagedWait<T> implements ForkJoinPool.ManagedBlocker {
+        private final Wait<T> wait;
+        private boolean done;
+        private T result;
+
+        ManagedWait(final Wait<T> wait) {
+            this.wait = wait;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            result = wait.call();
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+}
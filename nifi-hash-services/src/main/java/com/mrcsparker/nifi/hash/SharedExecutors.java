@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Executors shared by every record processor instance in the JVM. They are created on first use
+ * and never shut down, so processors must not shut them down either.
+ */
+final class SharedExecutors {
+
+    private SharedExecutors() {
+    }
+
+    /**
+     * @return a work-stealing pool with one thread per available processor
+     */
+    static ExecutorService forkJoinPool() {
+        return ForkJoinHolder.POOL;
+    }
+
+    /**
+     * @return true if the running JVM can start virtual threads
+     */
+    static boolean virtualThreadsSupported() {
+        return VirtualThreadHolder.EXECUTOR != null;
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task, or null if the running JVM has no
+     * virtual threads
+     */
+    static ExecutorService virtualThreads() {
+        return VirtualThreadHolder.EXECUTOR;
+    }
+
+    private static final class ForkJoinHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("record-hashing-shared-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    private static final class VirtualThreadHolder {
+        static final ExecutorService EXECUTOR = newVirtualThreadPerTaskExecutor();
+
+        // Looked up reflectively since the bundle is built for Java 8
+        private static ExecutorService newVirtualThreadPerTaskExecutor() {
+            try {
+                final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (final ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Hasher for the functions that take the hash key as their own key or seed and hash the UTF-8 value.
+ * <p>
+ * The seeded, non-cryptographic functions only get a seed from the key, so they suit partitioning,
+ * deduplication and join keys, but not hiding the values. The keyed PRFs built for short inputs,
+ * SipHash-2-4 and HighwayHash, resist key recovery, so they still hide the values, at a fraction of
+ * the cost of a SHA-2 block.
+ */
+final class Utf8Hasher extends KeyedHasher {
+
+    /**
+     * Hashes the first <code>length</code> bytes of <code>input</code>.
+     */
+    interface ByteFunction {
+        byte[] hash(byte[] input, int length);
+    }
+
+    /**
+     * Hashes the first <code>length</code> bytes of <code>input</code> into a 64 bit result.
+     */
+    interface LongFunction {
+        long hash(byte[] input, int length);
+    }
+
+    private final ByteFunction function;
+    // The function's own 64 bit result, or null to read it from the digest
+    private final LongFunction longFunction;
+
+    Utf8Hasher(final ByteFunction function) {
+        this(function, null);
+    }
+
+    private Utf8Hasher(final ByteFunction function, final LongFunction longFunction) {
+        this.function = function;
+        this.longFunction = longFunction;
+    }
+
+    /**
+     * @return a hasher for a 64 bit function, whose digest is its result laid out little-endian
+     */
+    static Utf8Hasher of64(final LongFunction function) {
+        return new Utf8Hasher((input, length) -> littleEndian(function.hash(input, length)), function);
+    }
+
+    private static byte[] littleEndian(final long value) {
+        final byte[] bytes = new byte[Long.BYTES];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (value >>> (8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * @return a 64 bit seed derived from the hash key; narrower seeds use its low bits
+     */
+    static long seedOf(final String key) {
+        return Hashing.sha256().hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * Turns the Hash Key into a PRF key of <code>length</code> bytes. A key that is exactly that long
+     * in UTF-8 is used as is; any other key is replaced by its SHA-256, truncated to the length.
+     */
+    static byte[] keyOf(final String key, final int length) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length == length) {
+            return keyBytes;
+        }
+        return Arrays.copyOf(Hashing.sha256().hashBytes(keyBytes).asBytes(), length);
+    }
+
+    @Override
+    void encode(final HashBuffers buffers, final CharSequence val) {
+        buffers.encodeUtf8(val);
+    }
+
+    @Override
+    byte[] digest(final HashBuffers buffers) {
+        return function.hash(buffers.value, buffers.valueLength);
+    }
+
+    @Override
+    long digestLong(final HashBuffers buffers) {
+        return longFunction == null ? super.digestLong(buffers) : longFunction.hash(buffers.value, buffers.valueLength);
+    }
+}
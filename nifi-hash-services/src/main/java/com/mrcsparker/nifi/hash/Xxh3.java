@@ -0,0 +1,369 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+/**
+ * A pure-Java XXH3, 64 and 128 bit, with a seed, ported from xxHash 0.8. 128 bit digests are returned
+ * little-endian, low half first, like every {@link KeyedHasher} digest; that is the reverse of the
+ * canonical form that <code>xxhsum</code> prints.
+ */
+final class Xxh3 {
+
+    private static final long PRIME32_1 = 0x9E3779B1L;
+    private static final long PRIME32_2 = 0x85EBCA77L;
+    private static final long PRIME32_3 = 0xC2B2AE3DL;
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    private static final long PRIME_MX1 = 0x165667919E3779F9L;
+    private static final long PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private static final int STRIPE_LENGTH = 64;
+    private static final int SECRET_CONSUME_RATE = 8;
+    private static final int SECRET_LASTACC_START = 7;
+    private static final int SECRET_MERGEACCS_START = 11;
+    private static final int MIDSIZE_STARTOFFSET = 3;
+    private static final int MIDSIZE_LASTOFFSET = 17;
+    private static final int SECRET_SIZE_MIN = 136;
+
+    private static final byte[] DEFAULT_SECRET = {
+            (byte) 0xb8, (byte) 0xfe, (byte) 0x6c, (byte) 0x39, (byte) 0x23, (byte) 0xa4, (byte) 0x4b, (byte) 0xbe, (byte) 0x7c, (byte) 0x01, (byte) 0x81, (byte) 0x2c, (byte) 0xf7, (byte) 0x21, (byte) 0xad, (byte) 0x1c,
+            (byte) 0xde, (byte) 0xd4, (byte) 0x6d, (byte) 0xe9, (byte) 0x83, (byte) 0x90, (byte) 0x97, (byte) 0xdb, (byte) 0x72, (byte) 0x40, (byte) 0xa4, (byte) 0xa4, (byte) 0xb7, (byte) 0xb3, (byte) 0x67, (byte) 0x1f,
+            (byte) 0xcb, (byte) 0x79, (byte) 0xe6, (byte) 0x4e, (byte) 0xcc, (byte) 0xc0, (byte) 0xe5, (byte) 0x78, (byte) 0x82, (byte) 0x5a, (byte) 0xd0, (byte) 0x7d, (byte) 0xcc, (byte) 0xff, (byte) 0x72, (byte) 0x21,
+            (byte) 0xb8, (byte) 0x08, (byte) 0x46, (byte) 0x74, (byte) 0xf7, (byte) 0x43, (byte) 0x24, (byte) 0x8e, (byte) 0xe0, (byte) 0x35, (byte) 0x90, (byte) 0xe6, (byte) 0x81, (byte) 0x3a, (byte) 0x26, (byte) 0x4c,
+            (byte) 0x3c, (byte) 0x28, (byte) 0x52, (byte) 0xbb, (byte) 0x91, (byte) 0xc3, (byte) 0x00, (byte) 0xcb, (byte) 0x88, (byte) 0xd0, (byte) 0x65, (byte) 0x8b, (byte) 0x1b, (byte) 0x53, (byte) 0x2e, (byte) 0xa3,
+            (byte) 0x71, (byte) 0x64, (byte) 0x48, (byte) 0x97, (byte) 0xa2, (byte) 0x0d, (byte) 0xf9, (byte) 0x4e, (byte) 0x38, (byte) 0x19, (byte) 0xef, (byte) 0x46, (byte) 0xa9, (byte) 0xde, (byte) 0xac, (byte) 0xd8,
+            (byte) 0xa8, (byte) 0xfa, (byte) 0x76, (byte) 0x3f, (byte) 0xe3, (byte) 0x9c, (byte) 0x34, (byte) 0x3f, (byte) 0xf9, (byte) 0xdc, (byte) 0xbb, (byte) 0xc7, (byte) 0xc7, (byte) 0x0b, (byte) 0x4f, (byte) 0x1d,
+            (byte) 0x8a, (byte) 0x51, (byte) 0xe0, (byte) 0x4b, (byte) 0xcd, (byte) 0xb4, (byte) 0x59, (byte) 0x31, (byte) 0xc8, (byte) 0x9f, (byte) 0x7e, (byte) 0xc9, (byte) 0xd9, (byte) 0x78, (byte) 0x73, (byte) 0x64,
+            (byte) 0xea, (byte) 0xc5, (byte) 0xac, (byte) 0x83, (byte) 0x34, (byte) 0xd3, (byte) 0xeb, (byte) 0xc3, (byte) 0xc5, (byte) 0x81, (byte) 0xa0, (byte) 0xff, (byte) 0xfa, (byte) 0x13, (byte) 0x63, (byte) 0xeb,
+            (byte) 0x17, (byte) 0x0d, (byte) 0xdd, (byte) 0x51, (byte) 0xb7, (byte) 0xf0, (byte) 0xda, (byte) 0x49, (byte) 0xd3, (byte) 0x16, (byte) 0x55, (byte) 0x26, (byte) 0x29, (byte) 0xd4, (byte) 0x68, (byte) 0x9e,
+            (byte) 0x2b, (byte) 0x16, (byte) 0xbe, (byte) 0x58, (byte) 0x7d, (byte) 0x47, (byte) 0xa1, (byte) 0xfc, (byte) 0x8f, (byte) 0xf8, (byte) 0xb8, (byte) 0xd1, (byte) 0x7a, (byte) 0xd0, (byte) 0x31, (byte) 0xce,
+            (byte) 0x45, (byte) 0xcb, (byte) 0x3a, (byte) 0x8f, (byte) 0x95, (byte) 0x16, (byte) 0x04, (byte) 0x28, (byte) 0xaf, (byte) 0xd7, (byte) 0xfb, (byte) 0xca, (byte) 0xbb, (byte) 0x4b, (byte) 0x40, (byte) 0x7e
+    };
+
+    private Xxh3() {
+    }
+
+    static byte[] digest128(final byte[] input, final int length, final long seed) {
+        final long[] hash = hash128(input, length, seed);
+        final byte[] out = new byte[16];
+        writeLong(hash[0], out, 0);
+        writeLong(hash[1], out, 8);
+        return out;
+    }
+
+    /**
+     * @return the XXH3 64 bit hash of the first <code>length</code> bytes of <code>input</code>
+     */
+    static long hash64(final byte[] in, final int len, final long seed) {
+        final byte[] secret = DEFAULT_SECRET;
+        if (len <= 16) {
+            if (len > 8) {
+                final long bitflip1 = (readLong(secret, 24) ^ readLong(secret, 32)) + seed;
+                final long bitflip2 = (readLong(secret, 40) ^ readLong(secret, 48)) - seed;
+                final long inputLo = readLong(in, 0) ^ bitflip1;
+                final long inputHi = readLong(in, len - 8) ^ bitflip2;
+                final long acc = len + Long.reverseBytes(inputLo) + inputHi + mul128Fold64(inputLo, inputHi);
+                return avalanche(acc);
+            }
+            if (len >= 4) {
+                final long s = seed ^ ((long) Integer.reverseBytes((int) seed) << 32);
+                final long input1 = readInt(in, 0);
+                final long input2 = readInt(in, len - 4);
+                final long bitflip = (readLong(secret, 8) ^ readLong(secret, 16)) - s;
+                final long input64 = input2 + (input1 << 32);
+                return rrmxmx(input64 ^ bitflip, len);
+            }
+            if (len > 0) {
+                final int c1 = in[0] & 0xff;
+                final int c2 = in[len >> 1] & 0xff;
+                final int c3 = in[len - 1] & 0xff;
+                final long combined = ((c1 << 16) | (c2 << 24) | c3 | (len << 8)) & 0xFFFFFFFFL;
+                final long bitflip = (readInt(secret, 0) ^ readInt(secret, 4)) + seed;
+                return xxh64Avalanche(combined ^ bitflip);
+            }
+            return xxh64Avalanche(seed ^ readLong(secret, 56) ^ readLong(secret, 64));
+        }
+
+        if (len <= 128) {
+            long acc = len * PRIME64_1;
+            if (len > 32) {
+                if (len > 64) {
+                    if (len > 96) {
+                        acc += mix16B(in, 48, secret, 96, seed);
+                        acc += mix16B(in, len - 64, secret, 112, seed);
+                    }
+                    acc += mix16B(in, 32, secret, 64, seed);
+                    acc += mix16B(in, len - 48, secret, 80, seed);
+                }
+                acc += mix16B(in, 16, secret, 32, seed);
+                acc += mix16B(in, len - 32, secret, 48, seed);
+            }
+            acc += mix16B(in, 0, secret, 0, seed);
+            acc += mix16B(in, len - 16, secret, 16, seed);
+            return avalanche(acc);
+        }
+
+        if (len <= 240) {
+            long acc = len * PRIME64_1;
+            final int rounds = len / 16;
+            for (int i = 0; i < 8; i++) {
+                acc += mix16B(in, 16 * i, secret, 16 * i, seed);
+            }
+            acc = avalanche(acc);
+            for (int i = 8; i < rounds; i++) {
+                acc += mix16B(in, 16 * i, secret, 16 * (i - 8) + MIDSIZE_STARTOFFSET, seed);
+            }
+            acc += mix16B(in, len - 16, secret, SECRET_SIZE_MIN - MIDSIZE_LASTOFFSET, seed);
+            return avalanche(acc);
+        }
+
+        final byte[] longSecret = seed == 0 ? secret : customSecret(seed);
+        final long[] acc = accumulateLong(in, len, longSecret);
+        return mergeAccs(acc, longSecret, SECRET_MERGEACCS_START, len * PRIME64_1);
+    }
+
+    /**
+     * @return the XXH3 128 bit hash of the first <code>length</code> bytes of <code>input</code>, low half first
+     */
+    static long[] hash128(final byte[] in, final int len, final long seed) {
+        final byte[] secret = DEFAULT_SECRET;
+        if (len <= 16) {
+            if (len > 8) {
+                final long bitflipl = (readLong(secret, 32) ^ readLong(secret, 40)) - seed;
+                final long bitfliph = (readLong(secret, 48) ^ readLong(secret, 56)) + seed;
+                final long inputLo = readLong(in, 0);
+                long inputHi = readLong(in, len - 8);
+                final long m = inputLo ^ inputHi ^ bitflipl;
+                long mLow = m * PRIME64_1;
+                long mHigh = multiplyHigh(m, PRIME64_1);
+                mLow += (long) (len - 1) << 54;
+                inputHi ^= bitfliph;
+                mHigh += inputHi + (inputHi & 0xFFFFFFFFL) * (PRIME32_2 - 1);
+                mLow ^= Long.reverseBytes(mHigh);
+                final long hLow = mLow * PRIME64_2;
+                final long hHigh = multiplyHigh(mLow, PRIME64_2) + mHigh * PRIME64_2;
+                return new long[] {avalanche(hLow), avalanche(hHigh)};
+            }
+            if (len >= 4) {
+                final long s = seed ^ ((long) Integer.reverseBytes((int) seed) << 32);
+                final long inputLo = readInt(in, 0);
+                final long inputHi = readInt(in, len - 4);
+                final long input64 = inputLo + (inputHi << 32);
+                final long bitflip = (readLong(secret, 16) ^ readLong(secret, 24)) + s;
+                final long keyed = input64 ^ bitflip;
+                final long multiplier = PRIME64_1 + ((long) len << 2);
+                long mLow = keyed * multiplier;
+                long mHigh = multiplyHigh(keyed, multiplier);
+                mHigh += mLow << 1;
+                mLow ^= mHigh >>> 3;
+                mLow ^= mLow >>> 35;
+                mLow *= PRIME_MX2;
+                mLow ^= mLow >>> 28;
+                return new long[] {mLow, avalanche(mHigh)};
+            }
+            if (len > 0) {
+                final int c1 = in[0] & 0xff;
+                final int c2 = in[len >> 1] & 0xff;
+                final int c3 = in[len - 1] & 0xff;
+                final int combinedl = (c1 << 16) | (c2 << 24) | c3 | (len << 8);
+                final int combinedh = Integer.rotateLeft(Integer.reverseBytes(combinedl), 13);
+                final long bitflipl = (readInt(secret, 0) ^ readInt(secret, 4)) + seed;
+                final long bitfliph = (readInt(secret, 8) ^ readInt(secret, 12)) - seed;
+                return new long[] {
+                        xxh64Avalanche((combinedl & 0xFFFFFFFFL) ^ bitflipl),
+                        xxh64Avalanche((combinedh & 0xFFFFFFFFL) ^ bitfliph)};
+            }
+            return new long[] {
+                    xxh64Avalanche(seed ^ readLong(secret, 64) ^ readLong(secret, 72)),
+                    xxh64Avalanche(seed ^ readLong(secret, 80) ^ readLong(secret, 88))};
+        }
+
+        if (len <= 240) {
+            final long[] acc = {len * PRIME64_1, 0};
+            if (len <= 128) {
+                if (len > 32) {
+                    if (len > 64) {
+                        if (len > 96) {
+                            mix32B(acc, in, 48, len - 64, secret, 96, seed);
+                        }
+                        mix32B(acc, in, 32, len - 48, secret, 64, seed);
+                    }
+                    mix32B(acc, in, 16, len - 32, secret, 32, seed);
+                }
+                mix32B(acc, in, 0, len - 16, secret, 0, seed);
+            } else {
+                final int rounds = len / 32;
+                for (int i = 0; i < 4; i++) {
+                    mix32B(acc, in, 32 * i, 32 * i + 16, secret, 32 * i, seed);
+                }
+                acc[0] = avalanche(acc[0]);
+                acc[1] = avalanche(acc[1]);
+                for (int i = 4; i < rounds; i++) {
+                    mix32B(acc, in, 32 * i, 32 * i + 16, secret, MIDSIZE_STARTOFFSET + 32 * (i - 4), seed);
+                }
+                mix32B(acc, in, len - 16, len - 32, secret, SECRET_SIZE_MIN - MIDSIZE_LASTOFFSET - 16, -seed);
+            }
+            final long low = acc[0] + acc[1];
+            final long high = acc[0] * PRIME64_1 + acc[1] * PRIME64_4 + (len - seed) * PRIME64_2;
+            return new long[] {avalanche(low), -avalanche(high)};
+        }
+
+        final byte[] longSecret = seed == 0 ? secret : customSecret(seed);
+        final long[] acc = accumulateLong(in, len, longSecret);
+        return new long[] {
+                mergeAccs(acc, longSecret, SECRET_MERGEACCS_START, len * PRIME64_1),
+                mergeAccs(acc, longSecret, longSecret.length - STRIPE_LENGTH - SECRET_MERGEACCS_START, ~(len * PRIME64_2))};
+    }
+
+    private static byte[] customSecret(final long seed) {
+        final byte[] secret = new byte[DEFAULT_SECRET.length];
+        for (int i = 0; i < secret.length; i += 16) {
+            writeLong(readLong(DEFAULT_SECRET, i) + seed, secret, i);
+            writeLong(readLong(DEFAULT_SECRET, i + 8) - seed, secret, i + 8);
+        }
+        return secret;
+    }
+
+    private static long[] accumulateLong(final byte[] in, final int len, final byte[] secret) {
+        final long[] acc = {PRIME32_3, PRIME64_1, PRIME64_2, PRIME64_3, PRIME64_4, PRIME32_2, PRIME64_5, PRIME32_1};
+        final int stripesPerBlock = (secret.length - STRIPE_LENGTH) / SECRET_CONSUME_RATE;
+        final int blockLength = STRIPE_LENGTH * stripesPerBlock;
+        final int blocks = (len - 1) / blockLength;
+
+        for (int n = 0; n < blocks; n++) {
+            accumulate(acc, in, n * blockLength, secret, stripesPerBlock);
+            scramble(acc, secret, secret.length - STRIPE_LENGTH);
+        }
+
+        final int stripes = ((len - 1) - blockLength * blocks) / STRIPE_LENGTH;
+        accumulate(acc, in, blocks * blockLength, secret, stripes);
+        accumulate512(acc, in, len - STRIPE_LENGTH, secret, secret.length - STRIPE_LENGTH - SECRET_LASTACC_START);
+        return acc;
+    }
+
+    private static void accumulate(final long[] acc, final byte[] in, final int offset, final byte[] secret, final int stripes) {
+        for (int n = 0; n < stripes; n++) {
+            accumulate512(acc, in, offset + n * STRIPE_LENGTH, secret, n * SECRET_CONSUME_RATE);
+        }
+    }
+
+    private static void accumulate512(final long[] acc, final byte[] in, final int offset, final byte[] secret, final int secretOffset) {
+        for (int i = 0; i < 8; i++) {
+            final long data = readLong(in, offset + 8 * i);
+            final long key = data ^ readLong(secret, secretOffset + 8 * i);
+            acc[i ^ 1] += data;
+            acc[i] += (key & 0xFFFFFFFFL) * (key >>> 32);
+        }
+    }
+
+    private static void scramble(final long[] acc, final byte[] secret, final int secretOffset) {
+        for (int i = 0; i < 8; i++) {
+            long a = acc[i];
+            a ^= a >>> 47;
+            a ^= readLong(secret, secretOffset + 8 * i);
+            acc[i] = a * PRIME32_1;
+        }
+    }
+
+    private static long mergeAccs(final long[] acc, final byte[] secret, final int secretOffset, final long start) {
+        long result = start;
+        for (int i = 0; i < 4; i++) {
+            result += mul128Fold64(acc[2 * i] ^ readLong(secret, secretOffset + 16 * i),
+                    acc[2 * i + 1] ^ readLong(secret, secretOffset + 16 * i + 8));
+        }
+        return avalanche(result);
+    }
+
+    private static long mix16B(final byte[] in, final int offset, final byte[] secret, final int secretOffset, final long seed) {
+        final long inputLo = readLong(in, offset);
+        final long inputHi = readLong(in, offset + 8);
+        return mul128Fold64(inputLo ^ (readLong(secret, secretOffset) + seed), inputHi ^ (readLong(secret, secretOffset + 8) - seed));
+    }
+
+    private static void mix32B(final long[] acc, final byte[] in, final int offset1, final int offset2,
+                               final byte[] secret, final int secretOffset, final long seed) {
+        acc[0] += mix16B(in, offset1, secret, secretOffset, seed);
+        acc[0] ^= readLong(in, offset2) + readLong(in, offset2 + 8);
+        acc[1] += mix16B(in, offset2, secret, secretOffset + 16, seed);
+        acc[1] ^= readLong(in, offset1) + readLong(in, offset1 + 8);
+    }
+
+    private static long mul128Fold64(final long a, final long b) {
+        return a * b ^ multiplyHigh(a, b);
+    }
+
+    /**
+     * The high 64 bits of the unsigned 128 bit product; Math.multiplyHigh is signed and needs Java 9.
+     */
+    private static long multiplyHigh(final long a, final long b) {
+        final long loLo = (a & 0xFFFFFFFFL) * (b & 0xFFFFFFFFL);
+        final long hiLo = (a >>> 32) * (b & 0xFFFFFFFFL);
+        final long loHi = (a & 0xFFFFFFFFL) * (b >>> 32);
+        final long hiHi = (a >>> 32) * (b >>> 32);
+        final long cross = (loLo >>> 32) + (hiLo & 0xFFFFFFFFL) + loHi;
+        return (hiLo >>> 32) + (cross >>> 32) + hiHi;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 37;
+        h *= PRIME_MX1;
+        return h ^ (h >>> 32);
+    }
+
+    private static long xxh64Avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ (h >>> 32);
+    }
+
+    private static long rrmxmx(long h, final int len) {
+        h ^= Long.rotateLeft(h, 49) ^ Long.rotateLeft(h, 24);
+        h *= PRIME_MX2;
+        h ^= (h >>> 35) + len;
+        h *= PRIME_MX2;
+        return h ^ (h >>> 28);
+    }
+
+    private static long readLong(final byte[] b, final int offset) {
+        return (b[offset] & 0xffL)
+                | (b[offset + 1] & 0xffL) << 8
+                | (b[offset + 2] & 0xffL) << 16
+                | (b[offset + 3] & 0xffL) << 24
+                | (b[offset + 4] & 0xffL) << 32
+                | (b[offset + 5] & 0xffL) << 40
+                | (b[offset + 6] & 0xffL) << 48
+                | (b[offset + 7] & 0xffL) << 56;
+    }
+
+    private static long readInt(final byte[] b, final int offset) {
+        return (b[offset] & 0xffL)
+                | (b[offset + 1] & 0xffL) << 8
+                | (b[offset + 2] & 0xffL) << 16
+                | (b[offset + 3] & 0xffL) << 24;
+    }
+
+    private static void writeLong(final long v, final byte[] b, final int offset) {
+        for (int i = 0; i < 8; i++) {
+            b[offset + i] = (byte) (v >>> (8 * i));
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestHashCache {
+
+    private static final String KEY = "4BAC2739-3BDD-9777-CE02453256C5";
+    private static final byte[] FINGERPRINT_KEY = OffHeapHashCache.fingerprintKey(KEY, "sha256");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCachedHashMatchesUncached() {
+        try (final HashCache cache = new OnHeapHashCache(100, 0, 0)) {
+            final HashContext cached = new HashContext(HashAlgorithm.SHA256, KEY, cache);
+
+            assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073", cached.hash("sample key"));
+            assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073", cached.hash("sample key"));
+            assertEquals("", cached.hash(""));
+            assertNull(cached.hash(null));
+
+            final HashCacheStats stats = cache.getStats();
+            assertEquals(1, stats.drainHits());
+            assertEquals(1, stats.drainMisses());
+            assertEquals(0, stats.drainHits());
+        }
+    }
+
+    @Test
+    public void testAlgorithmsDoNotShareEntries() {
+        try (final HashCache cache = new OnHeapHashCache(100, 0, 0)) {
+            cache.put(HashAlgorithm.SHA256, "value", new byte[] {1});
+            cache.put(HashAlgorithm.CRC32, "value", new byte[] {2});
+
+            assertArrayEquals(new byte[] {1}, cache.get(HashAlgorithm.SHA256, "value"));
+            assertArrayEquals(new byte[] {2}, cache.get(HashAlgorithm.CRC32, "value"));
+            assertNull(cache.get(HashAlgorithm.SHA512, "value"));
+        }
+    }
+
+    @Test
+    public void testBoundedByEntries() {
+        try (final HashCache cache = new OnHeapHashCache(10, 0, 0)) {
+            for (int i = 0; i < 100; i++) {
+                cache.put(HashAlgorithm.SHA256, "value " + i, new byte[32]);
+            }
+            assertEquals(90, cache.getStats().drainEvictions());
+        }
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        try (final HashCache cache = new OnHeapHashCache(Long.MAX_VALUE, 10_000, 0)) {
+            for (int i = 0; i < 1000; i++) {
+                cache.put(HashAlgorithm.SHA256, "value " + i, new byte[32]);
+            }
+            assertEquals(true, cache.getStats().drainEvictions() > 900);
+        }
+    }
+
+    @Test
+    public void testOffHeapCachedHashMatchesUncached() {
+        try (final HashCache cache = new OffHeapHashCache(1 << 20, FINGERPRINT_KEY)) {
+            final HashContext uncached = new HashContext(HashAlgorithm.SHA512, KEY);
+            final HashContext cached = new HashContext(HashAlgorithm.SHA512, KEY, cache);
+
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(uncached.hash("value " + i), cached.hash("value " + i));
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(uncached.hash("value " + i), cached.hash("value " + i));
+            }
+
+            final HashCacheStats stats = cache.getStats();
+            assertEquals(1000, stats.drainHits());
+            assertEquals(1000, stats.drainMisses());
+            assertEquals(0, stats.drainEvictions());
+        }
+    }
+
+    @Test
+    public void testOffHeapAlgorithmsDoNotShareEntries() {
+        try (final HashCache cache = new OffHeapHashCache(1 << 20, FINGERPRINT_KEY)) {
+            cache.put(HashAlgorithm.SHA256, "value", new byte[] {1});
+            cache.put(HashAlgorithm.CRC32, "value", new byte[] {2, 3});
+
+            assertArrayEquals(new byte[] {1}, cache.get(HashAlgorithm.SHA256, "value"));
+            assertArrayEquals(new byte[] {2, 3}, cache.get(HashAlgorithm.CRC32, "value"));
+            assertNull(cache.get(HashAlgorithm.SHA512, "value"));
+        }
+    }
+
+    @Test
+    public void testOffHeapClockEviction() {
+        // The smallest cache: a single probe window of slots
+        try (final HashCache cache = new OffHeapHashCache(0, FINGERPRINT_KEY)) {
+            for (int i = 0; i < OffHeapHashCache.PROBE_LIMIT; i++) {
+                cache.put(HashAlgorithm.SHA256, "value " + i, new byte[] {(byte) i});
+            }
+            assertEquals(0, cache.getStats().drainEvictions());
+
+            // A value read since the last sweep survives the next eviction
+            assertArrayEquals(new byte[] {0}, cache.get(HashAlgorithm.SHA256, "value 0"));
+            cache.put(HashAlgorithm.SHA256, "new value", new byte[] {42});
+
+            assertEquals(1, cache.getStats().drainEvictions());
+            assertArrayEquals(new byte[] {0}, cache.get(HashAlgorithm.SHA256, "value 0"));
+            assertArrayEquals(new byte[] {42}, cache.get(HashAlgorithm.SHA256, "new value"));
+
+            int evicted = 0;
+            for (int i = 1; i < OffHeapHashCache.PROBE_LIMIT; i++) {
+                if (cache.get(HashAlgorithm.SHA256, "value " + i) == null) {
+                    evicted++;
+                }
+            }
+            assertEquals(1, evicted);
+        }
+    }
+
+    @Test
+    public void testPersistentCacheSurvivesReopen() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("test.hashcache");
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 20, FINGERPRINT_KEY)) {
+            assertFalse(cache.isReused());
+            cache.put(HashAlgorithm.SHA256, "value", new byte[] {1, 2, 3});
+        }
+
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 20, FINGERPRINT_KEY)) {
+            assertTrue(cache.isReused());
+            assertArrayEquals(new byte[] {1, 2, 3}, cache.get(HashAlgorithm.SHA256, "value"));
+        }
+    }
+
+    @Test
+    public void testPersistentCacheEmptiedWhenKeyChanges() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("test.hashcache");
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 20, FINGERPRINT_KEY)) {
+            cache.put(HashAlgorithm.SHA256, "value", new byte[] {1, 2, 3});
+        }
+
+        final byte[] rotated = OffHeapHashCache.fingerprintKey("rotated key", "sha256");
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 20, rotated)) {
+            assertFalse(cache.isReused());
+            assertNull(cache.get(HashAlgorithm.SHA256, "value"));
+        }
+    }
+
+    @Test
+    public void testPersistentCacheEmptiedWhenSizeChanges() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("test.hashcache");
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 20, FINGERPRINT_KEY)) {
+            cache.put(HashAlgorithm.SHA256, "value", new byte[] {1, 2, 3});
+        }
+
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 22, FINGERPRINT_KEY)) {
+            assertFalse(cache.isReused());
+            assertNull(cache.get(HashAlgorithm.SHA256, "value"));
+        }
+    }
+
+    @Test
+    public void testPersistentCacheEmptiedWhenHeaderTruncated() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("test.hashcache");
+        Files.write(file, new byte[100]);
+
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 20, FINGERPRINT_KEY)) {
+            assertFalse(cache.isReused());
+            cache.put(HashAlgorithm.SHA256, "value", new byte[] {1, 2, 3});
+            assertArrayEquals(new byte[] {1, 2, 3}, cache.get(HashAlgorithm.SHA256, "value"));
+        }
+    }
+
+    @Test
+    public void testPersistentCacheEmptiedWhenHeaderCorrupt() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("test.hashcache");
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 20, FINGERPRINT_KEY)) {
+            cache.put(HashAlgorithm.SHA256, "value", new byte[] {1, 2, 3});
+        }
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("not a hash cache".getBytes(StandardCharsets.UTF_8)), 0);
+        }
+
+        try (final PersistentHashCache cache = PersistentHashCache.open(file, 1 << 20, FINGERPRINT_KEY)) {
+            assertFalse(cache.isReused());
+            assertNull(cache.get(HashAlgorithm.SHA256, "value"));
+        }
+    }
+}
@@ -16,16 +16,35 @@
  */
 package com.mrcsparker.nifi.hash;
 
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.serialization.AbstractRecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
 import org.apache.nifi.serialization.record.MockRecordParser;
 import org.apache.nifi.serialization.record.MockRecordWriter;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
 import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
 public class TestHashRecord {
     private TestRunner runner;
     private MockRecordParser readerService;
@@ -112,4 +131,368 @@ public class TestHashRecord {
         final MockFlowFile out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0);
         out.assertContentEquals("header\ne0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,3763dc3aa103d838243f7a585a498c380fd373577538b3bd7c00b2a1aa72e57a,35\n");
     }
+
+    @Test
+    public void testCrossFieldHash() {
+        runner.setProperty("/address", "/name");
+        runner.enqueue("");
+        runner.setValidateExpressionUsage(false);
+
+        readerService.addRecord("sample key", "123 Foo Way", 35);
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 1);
+        final MockFlowFile out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0);
+        out.assertContentEquals("header\nsample key,e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,35\n");
+    }
+
+    @Test
+    public void testRecordPathMatchesSimplePath() {
+        // Quoted field names are not treated as simple paths, so these go through RecordPath
+        runner.setProperty("/'name'", "/'name'");
+        runner.setProperty("/address", "/address");
+        runner.enqueue("");
+        runner.setValidateExpressionUsage(false);
+
+        readerService.addRecord("sample key", "123 Foo Way", 35);
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 1);
+        final MockFlowFile out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0);
+        out.assertContentEquals("header\ne0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,3763dc3aa103d838243f7a585a498c380fd373577538b3bd7c00b2a1aa72e57a,35\n");
+    }
+
+    @Test
+    public void testExpressionLanguageReplacement() {
+        runner.setProperty("/name", "${replacement}");
+        runner.enqueue("", Collections.singletonMap("replacement", "/address"));
+        runner.enqueue("", Collections.singletonMap("replacement", "/name"));
+        runner.setValidateExpressionUsage(false);
+
+        readerService.addRecord("sample key", "123 Foo Way", 35);
+        runner.run(2);
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 2);
+        final List<MockFlowFile> out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS);
+        out.get(0).assertContentEquals("header\n3763dc3aa103d838243f7a585a498c380fd373577538b3bd7c00b2a1aa72e57a,123 Foo Way,35\n");
+        out.get(1).assertContentEquals("header\ne0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,123 Foo Way,35\n");
+    }
+
+    @Test
+    public void testFlowFileBatch() {
+        runner.setProperty("/name", "/name");
+        runner.setProperty(HashRecord.FLOWFILE_BATCH_SIZE, "10");
+        runner.setValidateExpressionUsage(false);
+        for (int i = 0; i < 25; i++) {
+            runner.enqueue("");
+        }
+
+        readerService.addRecord("sample key", "123 Foo Way", 35);
+        runner.run(3);
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 25);
+        for (final MockFlowFile out : runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS)) {
+            out.assertContentEquals("header\ne0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,123 Foo Way,35\n");
+        }
+        assertEquals(25, runner.getCounterValue("FlowFiles Processed").intValue());
+        assertEquals(25, runner.getCounterValue("Records Processed").intValue());
+    }
+
+    @Test
+    public void testHashCache() {
+        runner.setProperty("/name", "/name");
+        runner.setProperty(HashRecord.HASH_CACHE, HashRecord.CACHE_ON_HEAP.getValue());
+        runner.setProperty(HashRecord.CACHE_MAX_ENTRIES, "10");
+        runner.enqueue("");
+
+        for (int i = 0; i < 3; i++) {
+            readerService.addRecord("sample key", "123 Foo Way", 35);
+        }
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 1);
+        final String hashed = "e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,123 Foo Way,35\n";
+        runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0).assertContentEquals("header\n" + hashed + hashed + hashed);
+        assertEquals(2, runner.getCounterValue("Hash Cache Hits").intValue());
+        assertEquals(1, runner.getCounterValue("Hash Cache Misses").intValue());
+        assertEquals(0, runner.getCounterValue("Hash Cache Evictions").intValue());
+    }
+
+    @Test
+    public void testConcurrentTasks() {
+        runner.setProperty("/name", "/name");
+        runner.setProperty("/address", "/address");
+        runner.setValidateExpressionUsage(false);
+
+        for (int i = 0; i < 500; i++) {
+            readerService.addRecord("name " + i, i + " Foo Way", i);
+        }
+
+        final String expected = runConcurrently(1, 1);
+        assertEquals(expected, runConcurrently(8, 64));
+        assertEquals(expected, runConcurrently(32, 256));
+    }
+
+    @Test
+    public void testParallelExecution() {
+        runner.setProperty("/name", "/name");
+        runner.setProperty("/address", "/address");
+        runner.setValidateExpressionUsage(false);
+
+        for (int i = 0; i < 500; i++) {
+            readerService.addRecord("name " + i, i + " Foo Way", i);
+        }
+
+        final String expected = runConcurrently(1, 1);
+
+        runner.setProperty(HashRecord.EXECUTION_MODE, HashRecord.EXECUTION_PARALLEL.getValue());
+        runner.setProperty(HashRecord.HASHING_THREADS, "3");
+        runner.setProperty(HashRecord.RECORD_BATCH_SIZE, "7");
+        assertEquals(expected, runConcurrently(1, 4));
+        assertEquals(expected, runConcurrently(4, 16));
+
+        runner.setProperty(HashRecord.WORKER_POOL, HashRecord.WORKER_POOL_SHARED.getValue());
+        assertEquals(expected, runConcurrently(4, 16));
+
+        runner.setProperty(HashRecord.WORKER_POOL, HashRecord.WORKER_POOL_VIRTUAL.getValue());
+        if (SharedExecutors.virtualThreadsSupported()) {
+            assertEquals(expected, runConcurrently(4, 16));
+        } else {
+            runner.assertNotValid();
+            runner.setProperty(HashRecord.EXECUTION_MODE, HashRecord.EXECUTION_SEQUENTIAL.getValue());
+            runner.assertValid();
+        }
+    }
+
+    @Test
+    public void testColumnBatches() {
+        // /address is hashed from /name first, then /name from the already hashed /address
+        runner.setProperty("/address", "/name");
+        runner.setProperty("/name", "/address");
+        runner.setProperty(HashRecord.HASH_CACHE, HashRecord.CACHE_ON_HEAP.getValue());
+        runner.setValidateExpressionUsage(false);
+
+        for (int i = 0; i < 100; i++) {
+            readerService.addRecord(i % 10 == 0 ? "" : "name " + (i % 13), i % 7 == 0 ? null : i + " Foo Way", i);
+        }
+
+        final String expected = runConcurrently(1, 1);
+
+        runner.setProperty(HashRecord.EXECUTION_MODE, HashRecord.EXECUTION_PARALLEL.getValue());
+        runner.setProperty(HashRecord.RECORD_BATCH_SIZE, "7");
+        assertEquals(expected, runConcurrently(2, 8));
+    }
+
+    @Test
+    public void testBinaryOutput() throws InitializationException {
+        final CapturingRecordWriter capturingWriter = new CapturingRecordWriter();
+        runner.addControllerService("capturing-writer", capturingWriter);
+        runner.enableControllerService(capturingWriter);
+        runner.setProperty(HashRecord.RECORD_WRITER, "capturing-writer");
+        runner.setProperty("/name", "/name");
+        runner.setProperty(HashUtils.OUTPUT_ENCODING, HashUtils.ENCODING_BINARY.getValue());
+        runner.enqueue("");
+        runner.setValidateExpressionUsage(false);
+
+        readerService.addRecord("sample key", "123 Foo Way", 35);
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 1);
+        runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0).assertAttributeEquals("record.count", "1");
+
+        assertEquals(RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.BYTE.getDataType()),
+                capturingWriter.schema.getDataType("name").get());
+        assertEquals(RecordFieldType.STRING.getDataType(), capturingWriter.schema.getDataType("address").get());
+
+        assertEquals(1, capturingWriter.records.size());
+        final Record record = capturingWriter.records.get(0);
+        assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073",
+                HexEncoder.encode((byte[]) record.getValue("name")));
+        assertEquals("123 Foo Way", record.getValue("address"));
+    }
+
+    @Test
+    public void testBinaryOutputNeedsTopLevelFields() {
+        runner.setProperty(HashUtils.OUTPUT_ENCODING, HashUtils.ENCODING_BINARY.getValue());
+        runner.setProperty("/name", "/name");
+        runner.assertValid();
+
+        // A nested or descendant field would keep its string type, so the writer would mangle the digest
+        runner.setProperty("/person/ssn", "/person/ssn");
+        runner.assertNotValid();
+        runner.removeProperty("/person/ssn");
+        runner.setProperty("//ssn", "//ssn");
+        runner.assertNotValid();
+
+        runner.setProperty(HashUtils.OUTPUT_ENCODING, HashUtils.ENCODING_BASE64URL.getValue());
+        runner.assertValid();
+    }
+
+    @Test
+    public void testLongOutput() {
+        // The FarmHash fingerprint of the key, value and Base64 value
+        assertLongOutput(HashUtils.HASH_FARMHASHFINGERPRINT64, -6653724075013008981L);
+    }
+
+    @Test
+    public void testLongOutputXxh3() {
+        assertLongOutput(HashUtils.HASH_XXH3_64, 0xfbaaab436c725532L);
+    }
+
+    @Test
+    public void testLongOutputHighwayHash() {
+        assertLongOutput(HashUtils.HASH_HIGHWAYHASH, 0xea9e3c794f999ad1L);
+    }
+
+    @Test
+    public void testLongOutputNeedsTopLevelFields() {
+        runner.setProperty(HashUtils.OUTPUT_ENCODING, HashUtils.ENCODING_LONG.getValue());
+        runner.setProperty("/name", "/name");
+        runner.assertValid();
+
+        // A nested field would stay a string and get the long as decimal text
+        runner.setProperty("/person/ssn", "/person/ssn");
+        runner.assertNotValid();
+    }
+
+    private void assertLongOutput(final AllowableValue algorithm, final long expected) {
+        runner.setProperty("/name", "/name");
+        runner.setProperty("/address", "/address");
+        runner.setProperty(HashUtils.HASH_ALGORITHM, algorithm.getValue());
+        runner.setProperty(HashUtils.OUTPUT_ENCODING, HashUtils.ENCODING_LONG.getValue());
+        runner.enqueue("");
+        runner.setValidateExpressionUsage(false);
+
+        readerService.addRecord("sample key", "", 35);
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 1);
+        final MockFlowFile out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0);
+        out.assertAttributeEquals("record.count", "1");
+        out.assertContentEquals("header\n" + expected + ",,35\n");
+    }
+
+    @Test
+    public void testWithFieldType() {
+        final RecordSchema schema = new SimpleRecordSchema(Arrays.asList(
+                new RecordField("name", RecordFieldType.STRING.getDataType()),
+                new RecordField("age", RecordFieldType.INT.getDataType())));
+        final DataType binary = OutputEncoding.BINARY.getDataType();
+
+        final RecordSchema rewritten = AbstractRecordProcessor.withFieldType(schema, Collections.singleton("name"), binary);
+        assertEquals(binary, rewritten.getDataType("name").get());
+        assertEquals(RecordFieldType.INT.getDataType(), rewritten.getDataType("age").get());
+
+        assertSame(rewritten, AbstractRecordProcessor.withFieldType(rewritten, Collections.singleton("name"), binary));
+        assertSame(schema, AbstractRecordProcessor.withFieldType(schema, Collections.singleton("missing"), binary));
+    }
+
+    @Test
+    public void testPipelinedExecution() {
+        runner.setProperty("/name", "/name");
+        runner.setProperty("/address", "/address");
+        runner.setValidateExpressionUsage(false);
+
+        for (int i = 0; i < 500; i++) {
+            readerService.addRecord("name " + i, i + " Foo Way", i);
+        }
+
+        final String expected = runConcurrently(1, 1);
+
+        runner.setProperty(HashRecord.EXECUTION_MODE, HashRecord.EXECUTION_PIPELINED.getValue());
+        runner.setProperty(HashRecord.RECORD_BATCH_SIZE, "7");
+        assertEquals(expected, runConcurrently(1, 4));
+        assertEquals(expected, runConcurrently(4, 16));
+
+        // More stages than the shared pool has threads, which only works if waiting stages make room
+        runner.setProperty(HashRecord.WORKER_POOL, HashRecord.WORKER_POOL_SHARED.getValue());
+        final int threads = Runtime.getRuntime().availableProcessors() * 2;
+        assertEquals(expected, runConcurrently(threads, threads * 4));
+    }
+
+    @Test
+    public void testPipelinedReadFailure() {
+        runner.setProperty("/name", "/name");
+        runner.setProperty(HashRecord.EXECUTION_MODE, HashRecord.EXECUTION_PIPELINED.getValue());
+        runner.setProperty(HashRecord.RECORD_BATCH_SIZE, "2");
+        runner.enqueue("");
+
+        readerService.failAfter(5);
+        for (int i = 0; i < 20; i++) {
+            readerService.addRecord("name " + i, i + " Foo Way", i);
+        }
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_FAILURE, 1);
+    }
+
+    @Test
+    public void testPipelinedWriteFailure() throws InitializationException {
+        final MockRecordWriter failingWriter = new MockRecordWriter("header", false, 5);
+        runner.addControllerService("failing-writer", failingWriter);
+        runner.enableControllerService(failingWriter);
+        runner.setProperty(HashRecord.RECORD_WRITER, "failing-writer");
+        runner.setProperty("/name", "/name");
+        runner.setProperty(HashRecord.EXECUTION_MODE, HashRecord.EXECUTION_PIPELINED.getValue());
+        runner.setProperty(HashRecord.RECORD_BATCH_SIZE, "2");
+        runner.enqueue("");
+
+        for (int i = 0; i < 200; i++) {
+            readerService.addRecord("name " + i, i + " Foo Way", i);
+        }
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_FAILURE, 1);
+    }
+
+    /**
+     * Keeps the schema and the records it is given instead of serializing them, so the test can look
+     * at field types and values that a text writer cannot show.
+     */
+    private static class CapturingRecordWriter extends MockRecordWriter {
+        private volatile RecordSchema schema;
+        private final List<Record> records = new CopyOnWriteArrayList<>();
+
+        // Inherits the schema it is offered, like a writer set to Inherit Record Schema
+        @Override
+        public RecordSchema getSchema(final Map<String, String> variables, final RecordSchema readSchema) {
+            return readSchema;
+        }
+
+        @Override
+        public RecordSetWriter createWriter(final ComponentLog logger, final RecordSchema schema, final OutputStream out,
+                                            final Map<String, String> variables) {
+            this.schema = schema;
+            return new AbstractRecordSetWriter(out) {
+                @Override
+                protected Map<String, String> writeRecord(final Record record) {
+                    records.add(record);
+                    return Collections.emptyMap();
+                }
+
+                @Override
+                public String getMimeType() {
+                    return "application/octet-stream";
+                }
+            };
+        }
+    }
+
+    private String runConcurrently(final int threads, final int flowFiles) {
+        runner.clearTransferState();
+        runner.setThreadCount(threads);
+        for (int i = 0; i < flowFiles; i++) {
+            runner.enqueue("");
+        }
+        // The default five second wait for the tasks to finish is too short on a loaded build machine
+        runner.run(flowFiles, true, true, 60000);
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, flowFiles);
+        final List<MockFlowFile> out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS);
+        final String content = new String(out.get(0).toByteArray());
+        for (final MockFlowFile flowFile : out) {
+            flowFile.assertContentEquals(content);
+        }
+        return content;
+    }
 }
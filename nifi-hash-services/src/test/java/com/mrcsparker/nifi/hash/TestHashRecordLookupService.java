@@ -16,7 +16,9 @@
  */
 package com.mrcsparker.nifi.hash;
 
+import org.apache.nifi.lookup.LookupFailureException;
 import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordFieldType;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Before;
@@ -32,12 +34,13 @@ import static org.junit.Assert.assertNull;
 
 public class TestHashRecordLookupService {
 
+    private TestRunner runner;
     private HashRecordLookupService service;
 
     @Before
     public void init() throws Exception {
         TestProcessor testProcessor = new TestProcessor();
-        TestRunner runner = TestRunners.newTestRunner(testProcessor);
+        runner = TestRunners.newTestRunner(testProcessor);
 
         service = new HashRecordLookupService();
         runner.addControllerService("com.mrcsparker.nifi.hash-pii-record-lookup-service", service);
@@ -46,28 +49,34 @@ public class TestHashRecordLookupService {
 
     @Test
     public void testSimpleHash() throws Exception {
+        runner.enableControllerService(service);
+
         Map<String, Object> criteria = new HashMap<>();
         criteria.put("the-key", "sample key");
 
         final Optional<Record> get1 = service.lookup(criteria);
         assertTrue(get1.isPresent());
-        assertEquals("620a8a34c1f06d4707c12d30c7d20a3b7e9f4d166bbeb28ad5a272883eee0bc5", get1.get().getAsString("the-key"));
+        assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073", get1.get().getAsString("the-key"));
     }
 
     @Test
     public void testDoubleHash() throws Exception {
+        runner.enableControllerService(service);
+
         Map<String, Object> criteria = new HashMap<>();
         criteria.put("the-first-key", "sample key");
         criteria.put("the-second-key", "sample key");
 
         final Optional<Record> get1 = service.lookup(criteria);
         assertTrue(get1.isPresent());
-        assertEquals("620a8a34c1f06d4707c12d30c7d20a3b7e9f4d166bbeb28ad5a272883eee0bc5", get1.get().getAsString("the-first-key"));
-        assertEquals("620a8a34c1f06d4707c12d30c7d20a3b7e9f4d166bbeb28ad5a272883eee0bc5", get1.get().getAsString("the-second-key"));
+        assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073", get1.get().getAsString("the-first-key"));
+        assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073", get1.get().getAsString("the-second-key"));
     }
 
     @Test
     public void testNullHash() throws Exception {
+        runner.enableControllerService(service);
+
         Map<String, Object> criteria = new HashMap<>();
         criteria.put("the-null-key", null);
 
@@ -79,12 +88,88 @@ public class TestHashRecordLookupService {
 
     @Test
     public void testEmptylHash() throws Exception {
+        runner.enableControllerService(service);
+
+        Map<String, Object> criteria = new HashMap<>();
+        criteria.put("the-empty-key", "");
+
+        final Optional<Record> get1 = service.lookup(criteria);
+        assertTrue(get1.isPresent());
+
+        assertEquals("", get1.get().getAsString("the-empty-key"));
+    }
+
+    @Test(expected = LookupFailureException.class)
+    public void testNotEnabled() throws Exception {
+        Map<String, Object> criteria = new HashMap<>();
+        criteria.put("the-key", "sample key");
+
+        service.lookup(criteria);
+    }
+
+    @Test
+    public void testBlake3Hash() throws Exception {
+        runner.setProperty(service, HashRecordLookupService.HASH_ALGORITHM, HashUtils.HASH_BLAKE3.getValue());
+        runner.enableControllerService(service);
+
+        Map<String, Object> criteria = new HashMap<>();
+        criteria.put("the-key", "sample key");
+
+        final Optional<Record> get1 = service.lookup(criteria);
+        assertTrue(get1.isPresent());
+        assertEquals("57418890905423cfd6e127d300e979f7c1bc80f094879157e619ece8590196ea", get1.get().getAsString("the-key"));
+    }
+
+    @Test
+    public void testEnabledMixedHash() throws Exception {
+        runner.enableControllerService(service);
+
         Map<String, Object> criteria = new HashMap<>();
+        criteria.put("the-key", "sample key");
+        criteria.put("the-other-key", "sample key");
+        criteria.put("the-null-key", null);
         criteria.put("the-empty-key", "");
 
         final Optional<Record> get1 = service.lookup(criteria);
         assertTrue(get1.isPresent());
+        assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073", get1.get().getAsString("the-key"));
+        assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073", get1.get().getAsString("the-other-key"));
+        assertNull(get1.get().getAsString("the-null-key"));
+        assertEquals("", get1.get().getAsString("the-empty-key"));
+    }
+
+    @Test
+    public void testTruncatedBase64url() throws Exception {
+        runner.setProperty(service, HashRecordLookupService.OUTPUT_ENCODING, HashUtils.ENCODING_BASE64URL.getValue());
+        runner.setProperty(service, HashRecordLookupService.DIGEST_LENGTH, "128");
+        runner.enableControllerService(service);
+
+        Map<String, Object> criteria = new HashMap<>();
+        criteria.put("the-key", "sample key");
+        criteria.put("the-empty-key", "");
 
+        final Optional<Record> get1 = service.lookup(criteria);
+        assertTrue(get1.isPresent());
+        // The first 128 bits of e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073
+        assertEquals("4AF9cnFK_6FO5DX1dFDUNg", get1.get().getAsString("the-key"));
         assertEquals("", get1.get().getAsString("the-empty-key"));
     }
+
+    @Test
+    public void testLong() throws Exception {
+        runner.setProperty(service, HashRecordLookupService.HASH_ALGORITHM, HashUtils.HASH_XXH3_64.getValue());
+        runner.setProperty(service, HashRecordLookupService.OUTPUT_ENCODING, HashUtils.ENCODING_LONG.getValue());
+        runner.enableControllerService(service);
+
+        Map<String, Object> criteria = new HashMap<>();
+        criteria.put("the-key", "sample key");
+        criteria.put("the-empty-key", "");
+
+        final Optional<Record> get1 = service.lookup(criteria);
+        assertTrue(get1.isPresent());
+        assertEquals(RecordFieldType.LONG.getDataType(), get1.get().getSchema().getDataType("the-key").get());
+        assertEquals(0xfbaaab436c725532L, get1.get().getValue("the-key"));
+        // A long field cannot hold an empty string
+        assertNull(get1.get().getValue("the-empty-key"));
+    }
 }
@@ -16,9 +16,20 @@
  */
 package com.mrcsparker.nifi.hash;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class TestHashUtils {
     @Test
@@ -57,10 +68,346 @@ public class TestHashUtils {
         assertEquals("5a4ff1e6db9cc4859b011a69e32df10d6dec7a3146aee02f9865fea081d2a5016584377956a164579f2a0dba869da78d", result);
     }
 
+    @Test
+    public void testHmacSha256() {
+        // RFC 4231, test case 2
+        assertEquals("5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843",
+                HashUtils.hmacSha256("Jefe", "what do ya want for nothing?"));
+        assertEquals(HashUtils.hmacSha256("Jefe", "what do ya want for nothing?"),
+                HashUtils.getHash(HashUtils.HASH_HMAC_SHA256.getValue(), "Jefe", "what do ya want for nothing?"));
+    }
+
+    @Test
+    public void testHmacSha512() {
+        // RFC 4231, test case 2
+        assertEquals("164b7a7bfcf819e2e395fbe73b56e0a387bd64222e831fd610270cd7ea2505549758bf75c05a994a6d034f65f8f0e6fdcaeab1a34d4a6b4b636e070a38bce737",
+                HashUtils.hmacSha512("Jefe", "what do ya want for nothing?"));
+    }
+
+    @Test
+    public void testBlake3ReferenceVectors() {
+        final Blake3 blake3 = Blake3.newHash();
+        assertEquals("af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262", HashCode.fromBytes(blake3.digest()).toString());
+
+        final byte[] abc = "abc".getBytes(StandardCharsets.UTF_8);
+        blake3.update(abc, 0, abc.length);
+        assertEquals("6437b3ac38465133ffb63b75273a8db548c558465d79db03fd359c6cd5bd9d85", HashCode.fromBytes(blake3.digest()).toString());
+
+        final Blake3 keyed = Blake3.newKeyedHash("whats the Elvish word for friend".getBytes(StandardCharsets.UTF_8));
+        assertEquals("92b2b75604ed3c761f9d6f62392c8a9227ad0ea3f09573e783f1498a4ed60d26", HashCode.fromBytes(keyed.digest()).toString());
+
+        final byte[] empty = new byte[0];
+        assertEquals("2cc39783c223154fea8dfb7c1b1660f2ac2dcbd1c1de8277b0b0dd39b7e50d7d",
+                HashCode.fromBytes(Blake3.deriveKey("BLAKE3 2019-12-27 16:29:52 test vectors context", empty)).toString());
+    }
+
+    @Test
+    public void testBlake3MultipleChunks() {
+        // Reference test vectors, whose input is the byte sequence 0, 1, ..., 250, 0, 1, ...
+        final byte[] input = new byte[2049];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) (i % 251);
+        }
+
+        final Blake3 blake3 = Blake3.newHash();
+        blake3.update(input, 0, 1024);
+        assertEquals("42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7", HashCode.fromBytes(blake3.digest()).toString());
+
+        blake3.update(input, 0, 1000);
+        blake3.update(input, 1000, 1049);
+        assertEquals("5f4d72f40d7a5f82b15ca2b2e44b1de3c2ef86c426c95c1af0b6879522563030", HashCode.fromBytes(blake3.digest()).toString());
+    }
+
+    @Test
+    public void testBlake3() {
+        // A 32 byte key is used as is
+        assertEquals("157f8b4b104070014ab0b3b7aff364f794e010e92b1c976318e892f380b53406",
+                HashUtils.blake3("whats the Elvish word for friend", "abc"));
+        // Any other key is derived first
+        assertEquals("57418890905423cfd6e127d300e979f7c1bc80f094879157e619ece8590196ea",
+                HashUtils.blake3("4BAC2739-3BDD-9777-CE02453256C5", "sample key"));
+    }
+
+    @Test
+    public void testXxh3ReferenceVectors() {
+        final byte[] empty = new byte[0];
+        assertEquals(0x2d06800538d394c2L, Xxh3.hash64(empty, 0, 0));
+        assertArrayEquals(new long[] {0x6001c324468d497fL, 0x99aa06d3014798d8L}, Xxh3.hash128(empty, 0, 0));
+        // The digest holds the same values little-endian, the reverse of what xxhsum prints
+        assertEquals("7f498d4624c30160d8984701d306aa99", HashCode.fromBytes(Xxh3.digest128(empty, 0, 0)).toString());
+    }
+
+    @Test
+    public void testXxh3() {
+        // Seeded with the first 8 bytes of SHA-256(key), little-endian
+        assertEquals("3255726c43abaafb", HashUtils.xxh3Hash64("4BAC2739-3BDD-9777-CE02453256C5", "sample key"));
+        assertEquals("024864b81e86da4a186611bcd4d21844", HashUtils.xxh3Hash128("4BAC2739-3BDD-9777-CE02453256C5", "sample key"));
+    }
+
+    @Test
+    public void testMurmur3() {
+        final int seed = (int) Utf8Hasher.seedOf("4BAC2739-3BDD-9777-CE02453256C5");
+        assertEquals(1149406502, seed);
+        assertEquals(Hashing.murmur3_128(seed).hashString("sample key", StandardCharsets.UTF_8).toString(),
+                HashUtils.murmur3Hash128("4BAC2739-3BDD-9777-CE02453256C5", "sample key"));
+    }
+
+    @Test
+    public void testSipHash24ReferenceVector() {
+        // Key 00..0f and message 00..0e from the SipHash paper; code points below 0x80 are their own UTF-8 bytes
+        assertEquals("e545be4961ca29a1", HashUtils.sipHash24(codePoints(16), codePoints(15)));
+    }
+
+    @Test
+    public void testSipHash24() {
+        assertEquals("66a91f35678ef1ad", HashUtils.sipHash24("4BAC2739-3BDD-9777-CE02453256C5", "sample key"));
+    }
+
+    @Test
+    public void testHighwayHashReferenceVectors() {
+        final String key = codePoints(32);
+        final HighwayHash highwayHash = new HighwayHash(key.getBytes(StandardCharsets.UTF_8));
+        assertEquals(0x907a56de22c26e53L, highwayHash.hash64(new byte[0], 0));
+        assertEquals(0x7eab43aac7cddd78L, highwayHash.hash64(codePoints(1).getBytes(StandardCharsets.UTF_8), 1));
+        assertEquals(0xcfab3489f97eb832L, highwayHash.hash64(codePoints(16).getBytes(StandardCharsets.UTF_8), 16));
+        assertEquals(0xa0c964d9ecd580fcL, highwayHash.hash64(codePoints(32).getBytes(StandardCharsets.UTF_8), 32));
+        // The digests hold the same values little-endian
+        assertEquals("9baa5227eff5c14f", HashUtils.highwayHash64(key, codePoints(35)));
+    }
+
+    @Test
+    public void testHighwayHash() {
+        assertEquals("d19a994f793c9eea", HashUtils.highwayHash64("4BAC2739-3BDD-9777-CE02453256C5", "sample key"));
+    }
+
+    @Test
+    public void testDigestByteOrder() {
+        // Every digest is its algorithm's own result laid out little-endian
+        final String key = "4BAC2739-3BDD-9777-CE02453256C5";
+        final byte[] value = "sample key".getBytes(StandardCharsets.UTF_8);
+        assertEquals(Xxh3.hash64(value, value.length, Utf8Hasher.seedOf(key)),
+                HashCode.fromBytes(HashAlgorithm.XXH3_64.newHasher(key).digest("sample key")).asLong());
+        assertEquals(Xxh3.hash128(value, value.length, Utf8Hasher.seedOf(key))[0],
+                HashCode.fromBytes(HashAlgorithm.XXH3_128.newHasher(key).digest("sample key")).asLong());
+        assertEquals(new HighwayHash(Utf8Hasher.keyOf(key, HighwayHash.KEY_LENGTH)).hash64(value, value.length),
+                HashCode.fromBytes(HashAlgorithm.HIGHWAYHASH.newHasher(key).digest("sample key")).asLong());
+        assertEquals(0xea9e3c794f999ad1L, HashCode.fromBytes(HashAlgorithm.HIGHWAYHASH.newHasher(key).digest("sample key")).asLong());
+    }
+
+    private static String codePoints(final int length) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) i);
+        }
+        return sb.toString();
+    }
+
     @Test
     public void testSha512() {
         String result = HashUtils.sha512("4BAC2739-3BDD-9777-CE02453256C5", "sample key");
         assertEquals("cd9d9b85532f02fb977a2742d4c0b388aa317007feb8809e6e58059424a0048eaf0e062e32d12510a006409f58ee664d119d12ee0d75e71d1a84b18c574104ef", result);
     }
 
+    @Test
+    public void testSha256Batch() {
+        final String[] values = {"sample key", null, "", " ", "\u00e9\u4e2d\ud83d\ude00", StringUtils.repeat("long value ", 40), "sample key"};
+        // Keys shorter and longer than a SHA-256 block take different batch paths
+        for (final String key : new String[] {"4BAC2739-3BDD-9777-CE02453256C5", StringUtils.repeat("4BAC2739-3BDD-9777-CE02453256C5", 3)}) {
+            final String[] hashed = HashUtils.sha256(key, values);
+            assertEquals(values.length, hashed.length);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(HashUtils.sha256(key, values[i]), hashed[i]);
+            }
+        }
+        assertEquals("sample key", values[0]);
+    }
+
+    @Test
+    public void testHashBatch() {
+        final String key = "4BAC2739-3BDD-9777-CE02453256C5";
+        final CharSequence[] values = {"sample key", null, "", " ", new StringBuilder("\u00e9\u4e2d\ud83d\ude00"), StringUtils.repeat("long value ", 40)};
+        for (final HashAlgorithm algorithm : HashAlgorithm.values()) {
+            final String algorithmValue = algorithm.getAllowableValue().getValue();
+            final String[] hashed = new String[values.length];
+            HashUtils.hashBatch(algorithmValue, key, values, values.length, hashed);
+            for (int i = 0; i < values.length; i++) {
+                final String expected = HashUtils.getHash(algorithmValue, key, values[i] == null ? null : values[i].toString());
+                assertEquals(algorithm + " value " + i, expected, hashed[i]);
+            }
+        }
+
+        // In place, and only the first count values
+        final String[] inPlace = {"sample key", "sample key"};
+        HashUtils.hashBatch(HashUtils.HASH_SHA256.getValue(), key, inPlace, 1, inPlace);
+        assertEquals(HashUtils.sha256(key, "sample key"), inPlace[0]);
+        assertEquals("sample key", inPlace[1]);
+    }
+
+    @Test
+    public void testHexEncoder() {
+        final Random random = new Random(0);
+        for (final int length : new int[] {1, 4, 8, 16, 32, 64, 100}) {
+            final byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            final String expected = HashCode.fromBytes(bytes).toString();
+            assertEquals(expected, HexEncoder.encode(bytes));
+
+            final byte[] ascii = new byte[2 * length + 3];
+            assertEquals(2 * length, HexEncoder.encode(bytes, 0, length, ascii, 3));
+            assertEquals(expected, new String(ascii, 3, 2 * length, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testBinaryOutputEncoding() {
+        final String key = "4BAC2739-3BDD-9777-CE02453256C5";
+        final HashContext context = new HashContext(HashAlgorithm.SHA256, key, null, OutputEncoding.BINARY, 0);
+        final byte[] digest = (byte[]) context.hash("sample key");
+        assertEquals(HashUtils.sha256(key, "sample key"), HashCode.fromBytes(digest).toString());
+        assertEquals("", context.hash(""));
+        assertNull(context.hash(null));
+
+        final Object[] hashes = new Object[2];
+        context.hashBatch(new String[] {"sample key", null}, 2, hashes);
+        assertArrayEquals(digest, (byte[]) hashes[0]);
+        assertNull(hashes[1]);
+    }
+
+    @Test
+    public void testBase32Encoder() {
+        // RFC 4648 section 10, without padding
+        assertEquals("", Base32Encoder.encode(new byte[0]));
+        assertEquals("MY", Base32Encoder.encode(bytes("f")));
+        assertEquals("MZXQ", Base32Encoder.encode(bytes("fo")));
+        assertEquals("MZXW6", Base32Encoder.encode(bytes("foo")));
+        assertEquals("MZXW6YQ", Base32Encoder.encode(bytes("foob")));
+        assertEquals("MZXW6YTB", Base32Encoder.encode(bytes("fooba")));
+        assertEquals("MZXW6YTBOI", Base32Encoder.encode(bytes("foobar")));
+        assertEquals("CSQPYRK1E8", Base32Encoder.encodeCrockford(bytes("foobar")));
+
+        final Random random = new Random(42);
+        for (int length = 1; length <= 70; length++) {
+            final byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            assertEquals(BaseEncoding.base32().omitPadding().encode(bytes), Base32Encoder.encode(bytes));
+        }
+    }
+
+    @Test
+    public void testTextOutputEncodings() {
+        final String key = "4BAC2739-3BDD-9777-CE02453256C5";
+        final byte[] digest = HashCode.fromString(HashUtils.sha256(key, "sample key")).asBytes();
+
+        assertEquals(BaseEncoding.base64Url().omitPadding().encode(digest),
+                new HashContext(HashAlgorithm.SHA256, key, null, OutputEncoding.BASE64URL, 0).hash("sample key"));
+        assertEquals(BaseEncoding.base32().omitPadding().encode(digest),
+                new HashContext(HashAlgorithm.SHA256, key, null, OutputEncoding.BASE32, 0).hash("sample key"));
+        assertEquals(Base32Encoder.encodeCrockford(digest),
+                new HashContext(HashAlgorithm.SHA256, key, null, OutputEncoding.CROCKFORD_BASE32, 0).hash("sample key"));
+        assertEquals(OutputEncoding.BASE64URL, OutputEncoding.fromValue(HashUtils.ENCODING_BASE64URL.getValue()));
+    }
+
+    @Test
+    public void testDigestLength() {
+        final String key = "4BAC2739-3BDD-9777-CE02453256C5";
+        final String hex = HashUtils.sha256(key, "sample key");
+
+        assertEquals(hex.substring(0, 32), new HashContext(HashAlgorithm.SHA256, key, null, OutputEncoding.HEX, 128).hash("sample key"));
+        assertEquals(hex, new HashContext(HashAlgorithm.SHA256, key, null, OutputEncoding.HEX, 1024).hash("sample key"));
+
+        final Object[] hashes = new Object[2];
+        new HashContext(HashAlgorithm.SHA256, key, null, OutputEncoding.HEX, 64).hashBatch(new String[] {"sample key", ""}, 2, hashes);
+        assertEquals(hex.substring(0, 16), hashes[0]);
+        assertEquals("", hashes[1]);
+
+        final byte[] digest = {(byte) 0xff, (byte) 0xff, (byte) 0xff};
+        assertArrayEquals(new byte[] {(byte) 0xff, (byte) 0xf0}, HashContext.truncate(digest, 12));
+        assertArrayEquals(new byte[] {(byte) 0x80}, HashContext.truncate(digest, 1));
+        assertTrue(digest == HashContext.truncate(digest, 0));
+        assertTrue(digest == HashContext.truncate(digest, 24));
+    }
+
+    @Test
+    public void testLongOutputEncoding() {
+        final String key = "4BAC2739-3BDD-9777-CE02453256C5";
+        final String val = "sample key";
+        final String newVal = key + val + Base64.getEncoder().encodeToString(val.getBytes(StandardCharsets.UTF_8));
+
+        final HashContext farmHash = new HashContext(HashAlgorithm.FARMHASHFINGERPRINT64, key, null, OutputEncoding.LONG, 0);
+        assertEquals(Hashing.farmHashFingerprint64().hashString(newVal, StandardCharsets.UTF_8).asLong(), farmHash.hash(val));
+        assertNull(farmHash.hash(""));
+        assertNull(farmHash.hash(null));
+
+        final HashContext sha256 = new HashContext(HashAlgorithm.SHA256, key, null, OutputEncoding.LONG, 64);
+        final long expected = HashCode.fromString(HashUtils.sha256(key, val)).padToLong();
+        assertEquals(expected, sha256.hash(val));
+
+        final Object[] hashes = new Object[3];
+        sha256.hashBatch(new String[] {val, " ", null}, 3, hashes);
+        assertEquals(expected, hashes[0]);
+        assertNull(hashes[1]);
+        assertNull(hashes[2]);
+
+        // The algorithm's own result, whether computed now or read back from the cache
+        final OnHeapHashCache cache = new OnHeapHashCache(100, 0, 0);
+        final HashContext xxh3 = new HashContext(HashAlgorithm.XXH3_64, key, null, OutputEncoding.LONG, 0);
+        final HashContext cachedXxh3 = new HashContext(HashAlgorithm.XXH3_64, key, cache, OutputEncoding.LONG, 0);
+        assertEquals(0xfbaaab436c725532L, xxh3.hash(val));
+        assertEquals(0xfbaaab436c725532L, cachedXxh3.hash(val));
+        assertEquals(0xfbaaab436c725532L, cachedXxh3.hash(val));
+        final HashContext highwayHash = new HashContext(HashAlgorithm.HIGHWAYHASH, key, null, OutputEncoding.LONG, 0);
+        final HashContext cachedHighwayHash = new HashContext(HashAlgorithm.HIGHWAYHASH, key, cache, OutputEncoding.LONG, 0);
+        assertEquals(0xea9e3c794f999ad1L, highwayHash.hash(val));
+        assertEquals(0xea9e3c794f999ad1L, cachedHighwayHash.hash(val));
+        assertEquals(0xea9e3c794f999ad1L, cachedHighwayHash.hash(val));
+        final HashContext sipHash = new HashContext(HashAlgorithm.SIPHASH24, key, null, OutputEncoding.LONG, 0);
+        assertEquals(0xadf18e67351fa966L, sipHash.hash(val));
+
+        // Digests shorter than a long are zero-extended
+        assertEquals(0x80L, OutputEncoding.LONG.encode(new byte[] {(byte) 0x80}));
+    }
+
+    private static byte[] bytes(final String val) {
+        return val.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testStreamingMatchesConcatenation() {
+        final String key = "4BAC2739-3BDD-9777-CE02453256C5";
+        final StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            longValue.append("\u00e9\u4e2d\ud83d\ude00").append(i);
+        }
+
+        final String[] values = {"a", "ab", "abc", "sample key", "j\u00fcrgen@example.com", "\ud83d\ude00", longValue.toString(), "a"};
+        for (final String val : values) {
+            final String newVal = key + val + Base64.getEncoder().encodeToString(val.getBytes(StandardCharsets.UTF_8));
+            assertEquals(Hashing.sha256().hashString(newVal, StandardCharsets.UTF_8).toString(), HashUtils.sha256(key, val));
+            assertEquals(Hashing.crc32c().hashString(newVal, StandardCharsets.UTF_8).toString(), HashUtils.crc32c(key, val));
+        }
+    }
+
+    @Test
+    public void testKeyedHashers() {
+        final String key = "4BAC2739-3BDD-9777-CE02453256C5";
+        for (final HashAlgorithm algorithm : HashAlgorithm.values()) {
+            final KeyedHasher hasher = HashUtils.newHasher(algorithm.getAllowableValue().getValue(), key);
+            for (final String val : new String[] {"sample key", "123 Foo Way", "sample key"}) {
+                assertEquals(algorithm.name(), HashUtils.getHash(algorithm.getAllowableValue().getValue(), key, val), hasher.hash(val));
+            }
+            assertEquals("", hasher.hash(""));
+            assertNull(hasher.hash(null));
+        }
+    }
+
+    @Test
+    public void testGetHashCrc32() {
+        assertEquals("b111d10f", HashUtils.getHash(HashUtils.HASH_CRC32.getValue(), "4BAC2739-3BDD-9777-CE02453256C5", "sample key"));
+    }
+
+    @Test
+    public void testUnknownAlgorithmFallsBackToSha256() {
+        assertEquals("e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073",
+                HashUtils.newHasher("", "4BAC2739-3BDD-9777-CE02453256C5").hash("sample key"));
+    }
 }
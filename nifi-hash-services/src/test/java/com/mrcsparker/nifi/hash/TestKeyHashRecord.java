@@ -10,6 +10,8 @@ import org.apache.nifi.util.TestRunners;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+
 public class TestKeyHashRecord {
     private TestRunner runner;
     private MockRecordParser readerService;
@@ -66,4 +68,47 @@ public class TestKeyHashRecord {
         final MockFlowFile out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0);
         out.assertContentEquals("header\ne0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,sample key\nebb59f4d65174fa86f81d0b37f2ee2d3d6dff4f1ccebc303416cf78e488a083e,123 address\n");
     }
+
+    @Test
+    public void testOffHeapHashCache() {
+        runner.setProperty("a", "/name");
+        runner.setProperty("b", "/address");
+        runner.setProperty(KeyHashRecord.HASH_CACHE, KeyHashRecord.CACHE_OFF_HEAP.getValue());
+        runner.setProperty(KeyHashRecord.CACHE_MAX_SIZE, "1 MB");
+        runner.enqueue("");
+        runner.setValidateExpressionUsage(false);
+
+        readerService.addRecord("sample key", "123 address", 35, "", "");
+        readerService.addRecord("sample key", "123 address", 35, "", "");
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 1);
+        final MockFlowFile out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0);
+        final String hashed = "e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,sample key\n"
+                + "ebb59f4d65174fa86f81d0b37f2ee2d3d6dff4f1ccebc303416cf78e488a083e,123 address\n";
+        out.assertContentEquals("header\n" + hashed + hashed);
+        assertEquals(2, runner.getCounterValue("Hash Cache Hits").intValue());
+        assertEquals(2, runner.getCounterValue("Hash Cache Misses").intValue());
+    }
+
+    @Test
+    public void testParallelBatches() {
+        runner.setProperty("a", "/name");
+        runner.setProperty("b", "/address");
+        runner.setProperty(KeyHashRecord.EXECUTION_MODE, KeyHashRecord.EXECUTION_PARALLEL.getValue());
+        runner.setProperty(KeyHashRecord.RECORD_BATCH_SIZE, "2");
+        runner.enqueue("");
+        runner.setValidateExpressionUsage(false);
+
+        readerService.addRecord("sample key", "123 address", 35, "", "");
+        readerService.addRecord("", null, 35, "", "");
+        readerService.addRecord("sample key", "123 address", 35, "", "");
+        runner.run();
+
+        runner.assertAllFlowFilesTransferred(HashRecord.REL_SUCCESS, 1);
+        final MockFlowFile out = runner.getFlowFilesForRelationship(HashRecord.REL_SUCCESS).get(0);
+        final String hashed = "e0017d72714affa14ee435f57450d4364d2161e2f0abf90019964f1263c1d073,sample key\n"
+                + "ebb59f4d65174fa86f81d0b37f2ee2d3d6dff4f1ccebc303416cf78e488a083e,123 address\n";
+        out.assertContentEquals("header\n" + hashed + hashed);
+    }
 }
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mrcsparker.nifi.hash;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestRecordPipelines {
+
+    private static final RecordSchema SCHEMA = new SimpleRecordSchema(
+            Collections.singletonList(new RecordField("name", RecordFieldType.STRING.getDataType())));
+
+    private ExecutorService executor;
+    private CountingReader reader;
+
+    @Before
+    public void setup() {
+        executor = Executors.newCachedThreadPool();
+        reader = new CountingReader(1000);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPipelinedWriterFailure() throws Exception {
+        final AtomicInteger written = new AtomicInteger();
+        try {
+            RecordPipelines.pipelined(reader, (record, sink) -> sink.accept(record), record -> {
+                if (written.incrementAndGet() > 10) {
+                    throw new IOException("Intentional writer failure");
+                }
+            }, executor, 2, 2);
+            fail("The writer failure was not reported");
+        } catch (final IOException e) {
+            assertEquals("Intentional writer failure", e.getMessage());
+        }
+        assertStagesEnded();
+    }
+
+    @Test
+    public void testPipelinedTransformFailure() throws Exception {
+        final AtomicInteger transformed = new AtomicInteger();
+        try {
+            RecordPipelines.pipelined(reader, (record, sink) -> {
+                if (transformed.incrementAndGet() > 10) {
+                    throw new IOException("Intentional transform failure");
+                }
+                sink.accept(record);
+            }, record -> { }, executor, 2, 2);
+            fail("The transform failure was not reported");
+        } catch (final IOException e) {
+            assertEquals("Intentional transform failure", e.getMessage());
+        }
+        assertStagesEnded();
+    }
+
+    @Test
+    public void testPipelinedWritesInOrder() throws Exception {
+        final AtomicInteger written = new AtomicInteger();
+        RecordPipelines.pipelined(reader, (record, sink) -> sink.accept(record), record ->
+                assertEquals("name " + written.getAndIncrement(), record.getAsString("name")), executor, 7, 2);
+        assertEquals(1000, written.get());
+        assertStagesEnded();
+    }
+
+    @Test
+    public void testParallelWriterFailureWaitsForBatches() throws Exception {
+        // Cancelling does not interrupt a running ForkJoinPool task, so the batches must be waited for
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger written = new AtomicInteger();
+        try {
+            RecordPipelines.parallel(reader, new RecordPipelines.RecordTransform() {
+                @Override
+                public void apply(final Record record, final AbstractRecordProcessor.RecordSink sink) throws IOException {
+                    sink.accept(record);
+                }
+
+                @Override
+                public void applyBatch(final List<Record> records, final AbstractRecordProcessor.RecordSink sink) throws IOException {
+                    running.incrementAndGet();
+                    try {
+                        Uninterruptibles.sleepUninterruptibly(20, TimeUnit.MILLISECONDS);
+                        RecordPipelines.RecordTransform.super.applyBatch(records, sink);
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            }, record -> {
+                if (written.incrementAndGet() > 10) {
+                    throw new IOException("Intentional writer failure");
+                }
+            }, pool, 10, 8);
+            fail("The writer failure was not reported");
+        } catch (final IOException e) {
+            assertEquals("Intentional writer failure", e.getMessage());
+            assertEquals("A batch is still being transformed", 0, running.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Closes the reader, as the processor does once the pipeline returns, and checks that no stage
+     * is still running or touches the reader afterwards.
+     */
+    private void assertStagesEnded() throws InterruptedException {
+        reader.close();
+        executor.shutdown();
+        assertTrue("A pipeline stage is still running", executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse("The reader was used after it was closed", reader.readAfterClose.get());
+    }
+
+    private static final class CountingReader implements RecordReader {
+        private final int count;
+        private int read;
+        private volatile boolean closed;
+        private final AtomicBoolean readAfterClose = new AtomicBoolean();
+
+        private CountingReader(final int count) {
+            this.count = count;
+        }
+
+        @Override
+        public Record nextRecord(final boolean coerceTypes, final boolean dropUnknownFields) {
+            if (closed) {
+                readAfterClose.set(true);
+            }
+            if (read == count) {
+                return null;
+            }
+            return new MapRecord(SCHEMA, Collections.singletonMap("name", "name " + read++));
+        }
+
+        @Override
+        public RecordSchema getSchema() {
+            return SCHEMA;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}